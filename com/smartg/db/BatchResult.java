@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Statistics of batch execution: update counts per batch and throughput.
+ */
+public class BatchResult {
+
+    private final ArrayList<int[]> updateCounts = new ArrayList<int[]>();
+    private long rows;
+    private long elapsedNanos;
+
+    void addBatch(int[] counts, int rowCount, long nanos) {
+	updateCounts.add(counts);
+	rows += rowCount;
+	elapsedNanos += nanos;
+    }
+
+    /**
+     * @return update counts as returned by executeBatch() (one array per
+     *         batch). In multi-row mode each array contains single update
+     *         count of the multi-row statement.
+     */
+    public List<int[]> getUpdateCounts() {
+	return Collections.unmodifiableList(updateCounts);
+    }
+
+    public int getBatchCount() {
+	return updateCounts.size();
+    }
+
+    public long getRowCount() {
+	return rows;
+    }
+
+    /**
+     * @return time spent in database calls (bind, execute and commit)
+     */
+    public long getElapsedNanos() {
+	return elapsedNanos;
+    }
+
+    public double getRowsPerSecond() {
+	if (elapsedNanos == 0) {
+	    return 0;
+	}
+	return rows * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+	return "BatchResult[rows=" + rows + ", batches=" + getBatchCount() + ", time=" + (elapsedNanos / 1000000) + "ms, rows/s="
+		+ (long) getRowsPerSecond() + "]";
+    }
+}
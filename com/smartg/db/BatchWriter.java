@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Streaming writer for batch inserts. Rows are collected until batch size is
+ * reached and then sent either with addBatch/executeBatch or as one multi-row
+ * INSERT statement. Writers created with
+ * JavaDB_Connection.createUpsertWriter and createUpdateWriter execute upsert
+ * or update statement instead. Writer created with returnGeneratedKeys
+ * collects generated keys of inserted rows, see getGeneratedKeys().
+ * 
+ * On Derby getGeneratedKeys() after executeBatch returns only key of last
+ * row, so writer with returnGeneratedKeys executes rows of batch one by one
+ * (still in one transaction and under one lock). This is deliberate fallback,
+ * such writer is slower than plain batch insert, create writer without keys
+ * if they are not needed.
+ * 
+ * If connection is in auto-commit mode, auto-commit is turned off while
+ * writer is open and every batch is committed. Otherwise commit is left to
+ * caller. Call close() to write remaining rows, or abort() to discard them.
+ */
+public class BatchWriter implements AutoCloseable {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final JavaDB_Connection jdbc;
+    private final TableDef tableDef;
+    private final int batchSize;
+    private final boolean multiRow;
+    // upsert/update statement and its parameter -> row value mapping, null
+    // for insert
+    private final StatementHandle statement;
+    private final int[] parameterIndexes;
+    private final int rowLength;
+
+    private final boolean returnKeys;
+    // Derby returns only last key of batch, rows are then executed one by one
+    private final boolean keysPerRow;
+    private long[] keys;
+    private int keyCount;
+    private int committedKeyCount;
+
+    private final ArrayList<Object[]> pending;
+    private final BatchResult result = new BatchResult();
+
+    private final boolean manageCommit;
+    private int commitInterval = 1;
+    private int uncommitted;
+    private boolean closed;
+
+    /**
+     * Called after every successful batch.
+     */
+    Runnable flushListener;
+
+    BatchWriter(JavaDB_Connection jdbc, TableDef tableDef, int batchSize, boolean multiRow) throws SQLException {
+	this(jdbc, tableDef, batchSize, multiRow, null, null, false);
+    }
+
+    BatchWriter(JavaDB_Connection jdbc, TableDef tableDef, int batchSize, StatementHandle statement, int[] parameterIndexes) throws SQLException {
+	this(jdbc, tableDef, batchSize, false, statement, parameterIndexes, false);
+    }
+
+    /**
+     * Insert writer which collects generated keys.
+     */
+    BatchWriter(JavaDB_Connection jdbc, TableDef tableDef, int batchSize) throws SQLException {
+	this(jdbc, tableDef, batchSize, false, tableDef.getInsertKeysHandle(), null, true);
+    }
+
+    private BatchWriter(JavaDB_Connection jdbc, TableDef tableDef, int batchSize, boolean multiRow, StatementHandle statement, int[] parameterIndexes,
+	    boolean returnKeys) throws SQLException {
+	if (batchSize <= 0) {
+	    throw new IllegalArgumentException("batchSize: " + batchSize);
+	}
+	this.jdbc = jdbc;
+	this.tableDef = tableDef;
+	this.batchSize = batchSize;
+	this.multiRow = multiRow;
+	this.statement = statement;
+	this.parameterIndexes = parameterIndexes;
+	this.returnKeys = returnKeys;
+	this.keysPerRow = returnKeys && jdbc.getDialect() == Dialect.DERBY;
+	this.keys = new long[returnKeys ? batchSize : 0];
+	this.rowLength = statement != null && parameterIndexes == null ? statement.types().length : tableDef.getColumnsLengthForInsert();
+	this.pending = new ArrayList<Object[]>(batchSize);
+
+	if (statement == null && !multiRow && !jdbc.hasStatement(tableDef.getInsertStatementName())) {
+	    jdbc.prepareStatement(tableDef.getInsertStatementName(), tableDef.getPreparedInsertStatement(), tableDef.getInsertParameterTypes(),
+			tableDef.tableName);
+	}
+
+	manageCommit = jdbc.getAutoCommit();
+	if (manageCommit) {
+	    jdbc.setAutoCommit(false);
+	}
+    }
+
+    /**
+     * Add row, batch is executed if batch size reached.
+     * 
+     * @param values
+     *            values for all columns except auto increment columns
+     *            (update writer: update values followed by condition values).
+     */
+    public void add(Object... values) throws SQLException {
+	if (closed) {
+	    throw new SQLException("BatchWriter is closed");
+	}
+	if (values.length != rowLength) {
+	    throw new SQLException("Expected " + rowLength + " values, got " + values.length);
+	}
+	pending.add(values);
+	if (pending.size() >= batchSize) {
+	    flush();
+	}
+    }
+
+    /**
+     * Execute pending rows. Connection lock is held while statement is bound
+     * and executed, so other threads can't evict the statement or bind their
+     * values in between.
+     */
+    public void flush() throws SQLException {
+	int count = pending.size();
+	if (count == 0) {
+	    return;
+	}
+	long start = System.nanoTime();
+	jdbc.lock.lock();
+	try {
+	    int[] counts;
+	    if (multiRow) {
+		String name = tableDef.getMultiRowInsertStatementName(count);
+		if (!jdbc.hasStatement(name)) {
+		    jdbc.prepareStatement(name, tableDef.getPreparedMultiRowInsertStatement(count), null, tableDef.tableName);
+		}
+		counts = new int[] { jdbc.get(name).executeUpdate(pending) };
+	    } else {
+		PS_Wrapper ps = statement != null ? jdbc.get(statement) : jdbc.get(tableDef.getInsertStatementName());
+		if (keysPerRow) {
+		    counts = executeRows(ps);
+		} else {
+		    try {
+			for (Object[] row : pending) {
+			    ps.addBatch(parameterIndexes != null ? permute(row, parameterIndexes) : row);
+			}
+			counts = ps.executeBatch();
+		    } finally {
+			ps.clearBatch();
+		    }
+		    if (returnKeys) {
+			ensureKeyCapacity(keyCount + count);
+			int n = ps.readGeneratedKeys(keys, keyCount);
+			if (n != count) {
+			    throw new SQLException("Driver returned " + n + " generated keys for " + count + " rows");
+			}
+			keyCount += n;
+		    }
+		}
+	    }
+	    if (manageCommit && ++uncommitted >= commitInterval) {
+		jdbc.commit();
+		uncommitted = 0;
+		committedKeyCount = keyCount;
+	    }
+	    result.addBatch(counts, count, System.nanoTime() - start);
+	    if (flushListener != null) {
+		flushListener.run();
+	    }
+	} catch (SQLException ex) {
+	    if (manageCommit) {
+		uncommitted = 0;
+		keyCount = committedKeyCount;
+		jdbc.rollback();
+	    }
+	    throw ex;
+	} finally {
+	    pending.clear();
+	    jdbc.lock.unlock();
+	}
+    }
+
+    private int[] executeRows(PS_Wrapper ps) throws SQLException {
+	int count = pending.size();
+	int[] counts = new int[count];
+	ensureKeyCapacity(keyCount + count);
+	int k = keyCount;
+	for (int i = 0; i < count; i++) {
+	    counts[i] = ps.executeUpdate(pending.subList(i, i + 1));
+	    if (ps.readGeneratedKeys(keys, k) != 1) {
+		throw new SQLException("No generated key for row " + i);
+	    }
+	    k++;
+	}
+	keyCount = k;
+	return counts;
+    }
+
+    private void ensureKeyCapacity(int capacity) {
+	if (capacity > keys.length) {
+	    keys = Arrays.copyOf(keys, Math.max(capacity, keys.length * 2));
+	}
+    }
+
+    /**
+     * @return generated keys of inserted rows in order of add() calls (rows
+     *         of rolled back batches excluded)
+     * @throws IllegalStateException
+     *             if writer was not created with returnGeneratedKeys
+     */
+    public long[] getGeneratedKeys() {
+	if (!returnKeys) {
+	    throw new IllegalStateException("Writer doesn't return generated keys");
+	}
+	return Arrays.copyOf(keys, keyCount);
+    }
+
+    static Object[] permute(Object[] row, int[] indexes) {
+	Object[] values = new Object[indexes.length];
+	for (int i = 0; i < indexes.length; i++) {
+	    values[i] = row[indexes[i]];
+	}
+	return values;
+    }
+
+    /**
+     * Discard pending rows and close writer.
+     */
+    public void abort() throws SQLException {
+	pending.clear();
+	if (!closed) {
+	    closed = true;
+	    if (manageCommit) {
+		try {
+		    jdbc.rollback();
+		} finally {
+		    jdbc.setAutoCommit(true);
+		}
+	    }
+	}
+    }
+
+    /**
+     * Execute pending rows and commit uncommitted batches (only if writer
+     * manages commits).
+     */
+    public void commit() throws SQLException {
+	jdbc.lock.lock();
+	try {
+	    flush();
+	    if (manageCommit && uncommitted > 0) {
+		jdbc.commit();
+		uncommitted = 0;
+		committedKeyCount = keyCount;
+	    }
+	} finally {
+	    jdbc.lock.unlock();
+	}
+    }
+
+    /**
+     * Write pending rows and restore auto-commit mode.
+     */
+    public void close() throws SQLException {
+	if (!closed) {
+	    try {
+		commit();
+	    } finally {
+		closed = true;
+		if (manageCommit) {
+		    jdbc.setAutoCommit(true);
+		}
+	    }
+	}
+    }
+
+    public int getBatchSize() {
+	return batchSize;
+    }
+
+    /**
+     * Commit every n-th batch (default 1). Used only if writer manages
+     * commits (connection was in auto-commit mode). Note that on error all
+     * uncommitted batches are rolled back.
+     */
+    public void setCommitInterval(int batches) {
+	if (batches <= 0) {
+	    throw new IllegalArgumentException("batches: " + batches);
+	}
+	this.commitInterval = batches;
+    }
+
+    public int getCommitInterval() {
+	return commitInterval;
+    }
+
+    public boolean isMultiRow() {
+	return multiRow;
+    }
+
+    /**
+     * @return update counts and throughput statistics of executed batches.
+     */
+    public BatchResult getResult() {
+	return result;
+    }
+}
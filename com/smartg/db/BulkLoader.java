@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.CallableStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bulk loader for embedded Derby. Rows are written to temporary delimited file
+ * and imported with SYSCS_UTIL.SYSCS_IMPORT_DATA, which is much faster than
+ * row by row (or batch) inserts for large data sets.
+ * 
+ * Optionally table is locked exclusively, existing rows are replaced and
+ * indexes created for Column.needIndex() are dropped before import and created
+ * again afterwards (with updated statistics).
+ * 
+ * Supported values: null, Number, Boolean, String, java.util.Date
+ * subclasses of java.sql and byte[] (written as hex). Tables with XML or user
+ * defined columns can't be imported, see isSupported(TableDef).
+ */
+public class BulkLoader {
+
+    /**
+     * Default number of rows above which DB_TableManager.insertBatch uses
+     * BulkLoader.
+     */
+    public static final int DEFAULT_THRESHOLD = 100000;
+
+    private static final char COLUMN_DELIMITER = ',';
+    private static final char CHARACTER_DELIMITER = '"';
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final JavaDB_Connection jdbc;
+    private final TableDef tableDef;
+
+    private boolean lockTable = true;
+    private boolean replace;
+    private boolean rebuildIndexes = true;
+    private Path directory;
+
+    public BulkLoader(JavaDB_Connection jdbc, TableDef tableDef) {
+	this.jdbc = jdbc;
+	this.tableDef = tableDef;
+    }
+
+    /**
+     * Lock table in exclusive mode during import (default true).
+     */
+    public void setLockTable(boolean lockTable) {
+	this.lockTable = lockTable;
+    }
+
+    /**
+     * Delete existing rows before import (default false).
+     */
+    public void setReplace(boolean replace) {
+	this.replace = replace;
+    }
+
+    /**
+     * Drop indexes of Column.needIndex() columns before import and create
+     * them again afterwards (default true).
+     */
+    public void setRebuildIndexes(boolean rebuildIndexes) {
+	this.rebuildIndexes = rebuildIndexes;
+    }
+
+    /**
+     * Directory for temporary file (default java.io.tmpdir).
+     */
+    public void setDirectory(Path directory) {
+	this.directory = directory;
+    }
+
+    /**
+     * @return true if all columns of table can be imported from delimited
+     *         file.
+     */
+    public static boolean isSupported(TableDef td) {
+	Enumeration<Column> columns = td.columns();
+	while (columns.hasMoreElements()) {
+	    switch (columns.nextElement().getDataType()) {
+	    case XML:
+	    case USED_DEFINED:
+		return false;
+	    default:
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Import rows. Whole import is one transaction, on error it is rolled
+     * back. Derby commits import itself, so connection must be in auto-commit
+     * mode (import can't be part of caller's transaction).
+     * 
+     * @param rows
+     *            values for all columns except auto increment columns
+     * @return number of imported rows and elapsed time
+     * @throws SQLException
+     *             also if auto-commit is off (e.g. Transaction is active)
+     */
+    public BatchResult load(Iterable<Object[]> rows) throws SQLException {
+	if (jdbc.getTransaction() != null) {
+	    throw new SQLException("Bulk import can't run inside transaction: " + jdbc.getTransaction());
+	}
+	if (!jdbc.getAutoCommit()) {
+	    throw new SQLException("Bulk import commits itself, it requires auto-commit mode");
+	}
+	long start = System.nanoTime();
+	Path file;
+	int count;
+	try {
+	    file = directory != null ? Files.createTempFile(directory, "bulk_", ".del") : Files.createTempFile("bulk_", ".del");
+	} catch (IOException ex) {
+	    throw new SQLException("Can't create import file", ex);
+	}
+	try {
+	    count = write(file, rows);
+	    importFile(file);
+	} finally {
+	    try {
+		Files.deleteIfExists(file);
+	    } catch (IOException ex) {
+		Logger.getLogger(getClass().getName()).log(Level.WARNING, "Can't delete " + file, ex);
+	    }
+	}
+	BatchResult result = new BatchResult();
+	result.addBatch(new int[] { count }, count, System.nanoTime() - start);
+	return result;
+    }
+
+    private int write(Path file, Iterable<Object[]> rows) throws SQLException {
+	int columns = tableDef.getColumnsLengthForInsert();
+	int count = 0;
+	StringBuilder sb = new StringBuilder();
+	try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+	    for (Object[] row : rows) {
+		if (row.length != columns) {
+		    throw new SQLException("Row " + count + ": expected " + columns + " values, got " + row.length);
+		}
+		sb.setLength(0);
+		for (int i = 0; i < row.length; i++) {
+		    if (i > 0) {
+			sb.append(COLUMN_DELIMITER);
+		    }
+		    append(sb, row[i]);
+		}
+		sb.append('\n');
+		out.append(sb);
+		count++;
+	    }
+	} catch (IOException ex) {
+	    throw new SQLException("Can't write import file " + file, ex);
+	}
+	return count;
+    }
+
+    private static void append(StringBuilder sb, Object value) {
+	if (value == null) {
+	    return;
+	}
+	if (value instanceof Number || value instanceof Boolean) {
+	    sb.append(value);
+	} else if (value instanceof byte[]) {
+	    for (byte b : (byte[]) value) {
+		sb.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+	    }
+	} else {
+	    String s = value.toString();
+	    sb.append(CHARACTER_DELIMITER);
+	    for (int i = 0; i < s.length(); i++) {
+		char c = s.charAt(i);
+		if (c == CHARACTER_DELIMITER) {
+		    sb.append(c);
+		}
+		sb.append(c);
+	    }
+	    sb.append(CHARACTER_DELIMITER);
+	}
+    }
+
+    private void importFile(Path file) throws SQLException {
+	jdbc.setAutoCommit(false);
+	jdbc.lock.lock();
+	try {
+	    if (lockTable) {
+		execute("LOCK TABLE " + tableDef.tableName + " IN EXCLUSIVE MODE");
+	    }
+	    ArrayList<String> dropped = rebuildIndexes ? dropIndexes() : new ArrayList<String>();
+
+	    CallableStatement cs = jdbc.getConnection().prepareCall("CALL SYSCS_UTIL.SYSCS_IMPORT_DATA(NULL, ?, ?, NULL, ?, ?, ?, 'UTF-8', ?)");
+	    try {
+		cs.setString(1, tableDef.tableName.toUpperCase());
+		cs.setString(2, getInsertColumns());
+		cs.setString(3, file.toAbsolutePath().toString());
+		cs.setString(4, String.valueOf(COLUMN_DELIMITER));
+		cs.setString(5, String.valueOf(CHARACTER_DELIMITER));
+		cs.setShort(6, (short) (replace ? 1 : 0));
+		cs.execute();
+	    } finally {
+		cs.close();
+	    }
+
+	    for (String sql : dropped) {
+		execute(sql);
+	    }
+	    if (!dropped.isEmpty()) {
+		CallableStatement stats = jdbc.getConnection().prepareCall("CALL SYSCS_UTIL.SYSCS_UPDATE_STATISTICS(CURRENT SCHEMA, ?, NULL)");
+		try {
+		    stats.setString(1, tableDef.tableName.toUpperCase());
+		    stats.execute();
+		} finally {
+		    stats.close();
+		}
+	    }
+	    jdbc.commit();
+	} catch (SQLException ex) {
+	    jdbc.rollback();
+	    throw ex;
+	} finally {
+	    jdbc.lock.unlock();
+	    jdbc.setAutoCommit(true);
+	}
+    }
+
+    /**
+     * @return statements to create dropped indexes again
+     */
+    private ArrayList<String> dropIndexes() throws SQLException {
+	ArrayList<String> list = new ArrayList<String>();
+	Enumeration<Column> columns = tableDef.columns();
+	while (columns.hasMoreElements()) {
+	    Column c = columns.nextElement();
+	    if (c.needIndex()) {
+		String index = "INDEX_" + tableDef.tableName + "_" + c.getName();
+		try {
+		    execute("DROP INDEX " + index);
+		    list.add("CREATE INDEX " + index + " ON " + tableDef.tableName + " (" + c.getName() + ")");
+		} catch (SQLException ex) {
+		    Logger.getLogger(getClass().getName()).log(Level.FINE, "Index not dropped: " + index, ex);
+		}
+	    }
+	}
+	return list;
+    }
+
+    private void execute(String sql) throws SQLException {
+	Statement statement = jdbc.getConnection().createStatement();
+	try {
+	    statement.execute(sql);
+	} finally {
+	    statement.close();
+	}
+    }
+
+    private String getInsertColumns() {
+	StringBuilder sb = new StringBuilder();
+	Enumeration<Column> columns = tableDef.columns();
+	while (columns.hasMoreElements()) {
+	    Column c = columns.nextElement();
+	    if (!c.isAutoIncrement) {
+		if (sb.length() > 0) {
+		    sb.append(',');
+		}
+		sb.append(c.getName().toUpperCase());
+	    }
+	}
+	return sb.toString();
+    }
+}
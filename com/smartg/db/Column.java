@@ -30,16 +30,30 @@
 
 package com.smartg.db;
 
+import java.sql.Types;
+
 public class Column {
 
+    /**
+     * _ID columns are generated by database (identity), _SEQ columns are
+     * filled by client with IdAllocator from sequence of the column (size
+     * argument of _SEQ column is its block size, i.e. sequence increment).
+     */
     public static enum ColumnType {
-	BIGINT, BIGINT_ID, BLOB, BOOLEAN, CHAR, CHAR_FBD, CLOB, DATE, DECIMAL, DOUBLE, FLOAT, INTEGER, INTEGER_ID, LONG_VARCHAR, LONG_VARCHAR_FBD, NUMERIC, REAL, SMALLINT, SMALLINT_ID, TIME, TIMESTAMP, USED_DEFINED, VARCHAR, VARCHAR_FBD, XML
+	BIGINT, BIGINT_ID, BIGINT_SEQ, BLOB, BOOLEAN, CHAR, CHAR_FBD, CLOB, DATE, DECIMAL, DOUBLE, FLOAT, INTEGER, INTEGER_ID, INTEGER_SEQ, LONG_VARCHAR, LONG_VARCHAR_FBD, NUMERIC, REAL, SMALLINT, SMALLINT_ID, TIME, TIMESTAMP, USED_DEFINED, VARCHAR, VARCHAR_FBD, XML
     }
 
+    /**
+     * Default block size of _SEQ columns.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 50;
+
     private String name;
     private ColumnType dataType;
 
     private int size;
+    // ids reserved by one sequence call, only for _SEQ columns
+    private final int blockSize;
 
     private String toString;
     private String userDefinedType;
@@ -62,8 +76,13 @@ public class Column {
 	this.name = name;
 	this.dataType = dataType;
 	this.index = indexed;
-	if (size > 0) {
-	    this.size = size;
+	if (isSequence()) {
+	    this.blockSize = size > 0 ? size : DEFAULT_BLOCK_SIZE;
+	} else {
+	    this.blockSize = 0;
+	    if (size > 0) {
+		this.size = size;
+	    }
 	}
 	isAutoIncrement = isAutoIncrement();
     }
@@ -72,6 +91,7 @@ public class Column {
 	this.name = name;
 	this.dataType = ColumnType.USED_DEFINED;
 	this.userDefinedType = userDefinedType;
+	this.blockSize = 0;
 	isAutoIncrement = isAutoIncrement();
     }
 
@@ -86,6 +106,82 @@ public class Column {
 	}
     }
 
+    public ColumnType getDataType() {
+	return dataType;
+    }
+
+    /**
+     * @return true for BIGINT_SEQ and INTEGER_SEQ columns
+     */
+    public boolean isSequence() {
+	return dataType == ColumnType.BIGINT_SEQ || dataType == ColumnType.INTEGER_SEQ;
+    }
+
+    /**
+     * @return number of ids reserved by one sequence call (sequence
+     *         increment), 0 if column is not sequence column
+     */
+    public int getBlockSize() {
+	return blockSize;
+    }
+
+    /**
+     * @return SQL type of column (java.sql.Types)
+     */
+    public int getSqlType() {
+	switch (dataType) {
+	case BIGINT:
+	case BIGINT_ID:
+	case BIGINT_SEQ:
+	    return Types.BIGINT;
+	case BLOB:
+	    return Types.BLOB;
+	case BOOLEAN:
+	    return Types.BOOLEAN;
+	case CHAR:
+	    return Types.CHAR;
+	case CHAR_FBD:
+	    return Types.BINARY;
+	case CLOB:
+	    return Types.CLOB;
+	case DATE:
+	    return Types.DATE;
+	case DECIMAL:
+	    return Types.DECIMAL;
+	case DOUBLE:
+	    return Types.DOUBLE;
+	case FLOAT:
+	    return Types.FLOAT;
+	case INTEGER:
+	case INTEGER_ID:
+	case INTEGER_SEQ:
+	    return Types.INTEGER;
+	case LONG_VARCHAR:
+	    return Types.LONGVARCHAR;
+	case LONG_VARCHAR_FBD:
+	    return Types.LONGVARBINARY;
+	case NUMERIC:
+	    return Types.NUMERIC;
+	case REAL:
+	    return Types.REAL;
+	case SMALLINT:
+	case SMALLINT_ID:
+	    return Types.SMALLINT;
+	case TIME:
+	    return Types.TIME;
+	case TIMESTAMP:
+	    return Types.TIMESTAMP;
+	case VARCHAR:
+	    return Types.VARCHAR;
+	case VARCHAR_FBD:
+	    return Types.VARBINARY;
+	case XML:
+	    return Types.SQLXML;
+	default:
+	    return Types.JAVA_OBJECT;
+	}
+    }
+
     public boolean needIndex() {
 	return index;
     }
@@ -122,6 +218,10 @@ public class Column {
 		s = s.replaceAll("_ID", "");
 	    }
 
+	    if (isSequence()) {
+		s = s.replaceAll("_SEQ", "");
+	    }
+
 	    sb.append(s);
 
 	    if (size > 0) {
@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Column oriented copy of Result. Numeric columns are stored in primitive
+ * arrays, character columns share one char buffer (with offsets per row),
+ * NULL values are marked in bitmaps. Other types are kept as objects.
+ * 
+ * Column kind is determined from TableMetadata.getColumnTypes().
+ * 
+ * <pre>
+ * ColumnarResult cr = ColumnarResult.materialize(result);
+ * long[] ids = cr.getLongColumn(0).values();
+ * </pre>
+ */
+public class ColumnarResult {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Values of one column.
+     */
+    public static abstract class ColumnVector {
+	private long[] nulls = new long[INITIAL_CAPACITY >> 6];
+	int size;
+
+	public int size() {
+	    return size;
+	}
+
+	public boolean isNull(int row) {
+	    return (nulls[row >> 6] & (1L << row)) != 0;
+	}
+
+	/**
+	 * @return value as object (boxed), null for SQL NULL.
+	 */
+	public abstract Object get(int row);
+
+	void setNull(int row) {
+	    int k = row >> 6;
+	    if (k >= nulls.length) {
+		nulls = Arrays.copyOf(nulls, Math.max(k + 1, nulls.length * 2));
+	    }
+	    nulls[k] |= 1L << row;
+	}
+
+	void trim() {
+	    nulls = Arrays.copyOf(nulls, (size + 63) >> 6);
+	    trimValues();
+	}
+
+	abstract void read(Result result, int column) throws SQLException;
+
+	abstract void trimValues();
+
+	static int grow(int capacity) {
+	    return capacity + Math.max(capacity, INITIAL_CAPACITY);
+	}
+    }
+
+    public static final class IntVector extends ColumnVector {
+	private int[] values = new int[INITIAL_CAPACITY];
+
+	public int getInt(int row) {
+	    return values[row];
+	}
+
+	/**
+	 * @return backing array (length == size()), NULL values are 0.
+	 */
+	public int[] values() {
+	    return values;
+	}
+
+	public Object get(int row) {
+	    return isNull(row) ? null : Integer.valueOf(values[row]);
+	}
+
+	void read(Result result, int column) throws SQLException {
+	    if (size == values.length) {
+		values = Arrays.copyOf(values, grow(size));
+	    }
+	    values[size] = result.getInt(column);
+	    if (result.wasNull()) {
+		setNull(size);
+	    }
+	    size++;
+	}
+
+	void trimValues() {
+	    values = Arrays.copyOf(values, size);
+	}
+    }
+
+    public static final class LongVector extends ColumnVector {
+	private long[] values = new long[INITIAL_CAPACITY];
+
+	public long getLong(int row) {
+	    return values[row];
+	}
+
+	public long[] values() {
+	    return values;
+	}
+
+	public Object get(int row) {
+	    return isNull(row) ? null : Long.valueOf(values[row]);
+	}
+
+	void read(Result result, int column) throws SQLException {
+	    if (size == values.length) {
+		values = Arrays.copyOf(values, grow(size));
+	    }
+	    values[size] = result.getLong(column);
+	    if (result.wasNull()) {
+		setNull(size);
+	    }
+	    size++;
+	}
+
+	void trimValues() {
+	    values = Arrays.copyOf(values, size);
+	}
+    }
+
+    public static final class DoubleVector extends ColumnVector {
+	private double[] values = new double[INITIAL_CAPACITY];
+
+	public double getDouble(int row) {
+	    return values[row];
+	}
+
+	public double[] values() {
+	    return values;
+	}
+
+	public Object get(int row) {
+	    return isNull(row) ? null : Double.valueOf(values[row]);
+	}
+
+	void read(Result result, int column) throws SQLException {
+	    if (size == values.length) {
+		values = Arrays.copyOf(values, grow(size));
+	    }
+	    values[size] = result.getDouble(column);
+	    if (result.wasNull()) {
+		setNull(size);
+	    }
+	    size++;
+	}
+
+	void trimValues() {
+	    values = Arrays.copyOf(values, size);
+	}
+    }
+
+    /**
+     * Strings of all rows are stored in one char buffer. Characters of row n
+     * are chars()[offsets()[n]] ... chars()[offsets()[n + 1] - 1].
+     */
+    public static final class StringVector extends ColumnVector {
+	private char[] chars = new char[INITIAL_CAPACITY * 8];
+	private int[] offsets = new int[INITIAL_CAPACITY + 1];
+
+	public String get(int row) {
+	    if (isNull(row)) {
+		return null;
+	    }
+	    return new String(chars, offsets[row], offsets[row + 1] - offsets[row]);
+	}
+
+	public int length(int row) {
+	    return offsets[row + 1] - offsets[row];
+	}
+
+	public char[] chars() {
+	    return chars;
+	}
+
+	/**
+	 * @return offsets into chars() (length == size() + 1)
+	 */
+	public int[] offsets() {
+	    return offsets;
+	}
+
+	void read(Result result, int column) throws SQLException {
+	    if (size + 1 == offsets.length) {
+		offsets = Arrays.copyOf(offsets, grow(offsets.length));
+	    }
+	    String s = result.getString(column);
+	    int start = offsets[size];
+	    if (s == null) {
+		setNull(size);
+	    } else {
+		int length = s.length();
+		if (start + length > chars.length) {
+		    chars = Arrays.copyOf(chars, Math.max(start + length, grow(chars.length)));
+		}
+		s.getChars(0, length, chars, start);
+		start += length;
+	    }
+	    offsets[++size] = start;
+	}
+
+	void trimValues() {
+	    chars = Arrays.copyOf(chars, offsets[size]);
+	    offsets = Arrays.copyOf(offsets, size + 1);
+	}
+    }
+
+    public static final class ObjectVector extends ColumnVector {
+	private Object[] values = new Object[INITIAL_CAPACITY];
+
+	public Object get(int row) {
+	    return values[row];
+	}
+
+	void read(Result result, int column) throws SQLException {
+	    if (size == values.length) {
+		values = Arrays.copyOf(values, grow(size));
+	    }
+	    Object value = result.getObject(column);
+	    if (value == null) {
+		setNull(size);
+	    }
+	    values[size++] = value;
+	}
+
+	void trimValues() {
+	    values = Arrays.copyOf(values, size);
+	}
+    }
+
+    private final TableMetadata metadata;
+    private final ColumnVector[] columns;
+    private final int rowCount;
+
+    private ColumnarResult(TableMetadata metadata, ColumnVector[] columns, int rowCount) {
+	this.metadata = metadata;
+	this.columns = columns;
+	this.rowCount = rowCount;
+    }
+
+    /**
+     * Read all remaining rows of result (in cursor mode) and close it.
+     * 
+     * @param result
+     * @return ColumnarResult
+     * @throws SQLException
+     */
+    public static ColumnarResult materialize(Result result) throws SQLException {
+	TableMetadata metadata = result.getResultMetadata();
+	if (metadata == null) {
+	    if (result.getException() != null) {
+		throw result.getException();
+	    }
+	    return new ColumnarResult(null, new ColumnVector[0], 0);
+	}
+	String[] types = metadata.getColumnTypes();
+	ColumnVector[] columns = new ColumnVector[types.length];
+	for (int i = 0; i < types.length; i++) {
+	    columns[i] = createVector(types[i]);
+	}
+
+	int rows = 0;
+	try {
+	    while (result.moveNext()) {
+		for (int i = 0; i < columns.length; i++) {
+		    columns[i].read(result, i);
+		}
+		rows++;
+	    }
+	} finally {
+	    result.close();
+	}
+	if (result.getException() != null) {
+	    throw result.getException();
+	}
+	for (ColumnVector c : columns) {
+	    c.trim();
+	}
+	return new ColumnarResult(metadata, columns, rows);
+    }
+
+    static ColumnVector createVector(String typeName) {
+	if (typeName == null) {
+	    return new ObjectVector();
+	}
+	String type = typeName.toUpperCase();
+	if (type.indexOf("BIT DATA") >= 0) {
+	    return new ObjectVector();
+	}
+	if (type.equals("SMALLINT") || type.equals("INTEGER") || type.equals("INT") || type.equals("INT2") || type.equals("INT4")
+		|| type.equals("SERIAL")) {
+	    return new IntVector();
+	}
+	if (type.equals("BIGINT") || type.equals("INT8") || type.equals("BIGSERIAL")) {
+	    return new LongVector();
+	}
+	if (type.equals("DOUBLE") || type.equals("FLOAT") || type.equals("REAL") || type.equals("FLOAT4") || type.equals("FLOAT8")
+		|| type.equals("DOUBLE PRECISION")) {
+	    return new DoubleVector();
+	}
+	if (type.equals("CHAR") || type.equals("VARCHAR") || type.equals("LONG VARCHAR") || type.equals("BPCHAR") || type.equals("TEXT")) {
+	    return new StringVector();
+	}
+	return new ObjectVector();
+    }
+
+    public TableMetadata getMetadata() {
+	return metadata;
+    }
+
+    public int getRowCount() {
+	return rowCount;
+    }
+
+    public int getColumnCount() {
+	return columns.length;
+    }
+
+    public ColumnVector getColumn(int column) {
+	return columns[column];
+    }
+
+    /**
+     * @throws ClassCastException
+     *             if column is not stored as int[]
+     */
+    public IntVector getIntColumn(int column) {
+	return (IntVector) columns[column];
+    }
+
+    public LongVector getLongColumn(int column) {
+	return (LongVector) columns[column];
+    }
+
+    public DoubleVector getDoubleColumn(int column) {
+	return (DoubleVector) columns[column];
+    }
+
+    public StringVector getStringColumn(int column) {
+	return (StringVector) columns[column];
+    }
+
+    public Object get(int row, int column) {
+	return columns[column].get(row);
+    }
+}
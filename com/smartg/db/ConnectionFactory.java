@@ -56,6 +56,22 @@ public class ConnectionFactory {
 	return DriverManager.getConnection(protocol + dbName + s, props);
     }
 
+    /**
+     * Create pool of embedded Derby connections. Database is created (if
+     * requested) with the first connection.
+     */
+    public static ConnectionPool getEmbeddedConnectionPool(final String user, final String pwd, final String dbName, File directory, final boolean create,
+	    int maxSize) {
+	if (directory != null) {
+	    System.setProperty("derby.system.home", directory.getAbsolutePath());
+	}
+	return new ConnectionPool(new ConnectionPool.ConnectionProvider() {
+	    public Connection getConnection() throws SQLException {
+		return getEmbeddedConnection(user, pwd, dbName, null, create);
+	    }
+	}, maxSize);
+    }
+
     public static Connection getPostgreSqlConnection(String database, String user, String pw) throws SQLException {
 	return getPostgreSqlConnection("localhost", 5432, database, user, pw);
     }
@@ -75,6 +91,19 @@ public class ConnectionFactory {
 	return DriverManager.getConnection(url, props);
     }
 
+    public static ConnectionPool getPostgreSqlConnectionPool(String database, String user, String pw, int maxSize) {
+	return getPostgreSqlConnectionPool("localhost", 5432, database, user, pw, maxSize);
+    }
+
+    public static ConnectionPool getPostgreSqlConnectionPool(final String host, final int port, final String database, final String user, final String pw,
+	    int maxSize) {
+	return new ConnectionPool(new ConnectionPool.ConnectionProvider() {
+	    public Connection getConnection() throws SQLException {
+		return getPostgreSqlConnection(host, port, database, user, pw);
+	    }
+	}, maxSize);
+    }
+
     public static Connection getExcelConnection(File f) throws SQLException {
 	try {
 	    Class.forName("sun.jdbc.odbc.JdbcOdbcDriver");
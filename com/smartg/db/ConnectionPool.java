@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of JavaDB_Connection instances.
+ * 
+ * Connections are handed out with borrow() and must be given back with
+ * release(). Since the pool keeps the JavaDB_Connection itself (and not only
+ * the underlying java.sql.Connection), prepared statements created by a
+ * connection stay cached across borrow/release cycles.
+ */
+public class ConnectionPool {
+
+    /**
+     * Creates new physical connections for the pool.
+     */
+    public static interface ConnectionProvider {
+	Connection getConnection() throws SQLException;
+    }
+
+    /**
+     * Work done with borrowed connection, see submit(Task).
+     */
+    public static interface Task<T> {
+	T call(JavaDB_Connection connection) throws SQLException;
+    }
+
+    private static class IdleConnection {
+	final JavaDB_Connection connection;
+	final long idleSince;
+
+	IdleConnection(JavaDB_Connection connection) {
+	    this.connection = connection;
+	    this.idleSince = System.currentTimeMillis();
+	}
+    }
+
+    private final ConnectionProvider provider;
+    private final int maxSize;
+    private final Semaphore permits;
+
+    private final LinkedBlockingDeque<IdleConnection> idle = new LinkedBlockingDeque<IdleConnection>();
+    private final Set<JavaDB_Connection> borrowed = Collections.newSetFromMap(new ConcurrentHashMap<JavaDB_Connection, Boolean>());
+    private final Map<String, String> statementDefs = new ConcurrentHashMap<String, String>();
+
+    private volatile long borrowTimeout = 30000;
+    private volatile long maxIdleTime = 5 * 60 * 1000;
+    private volatile int validationTimeout = 2;
+    private volatile int statementCacheSize = StatementCache.DEFAULT_MAX_SIZE;
+    private volatile boolean closed;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+
+    public ConnectionPool(ConnectionProvider provider, int maxSize) {
+	if (maxSize <= 0) {
+	    throw new IllegalArgumentException("maxSize: " + maxSize);
+	}
+	this.provider = provider;
+	this.maxSize = maxSize;
+	this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Register prepared statement for all connections of this pool (see
+     * JavaDB_Connection.prepareStatement(String, String)).
+     * 
+     * @param name
+     *            statement name
+     * @param sql
+     */
+    public void prepareStatement(String name, String sql) {
+	statementDefs.put(name, sql);
+    }
+
+    /**
+     * Borrow connection, wait at most getBorrowTimeout() milliseconds.
+     * 
+     * @return JavaDB_Connection (never null)
+     * @throws SQLException
+     *             if pool is closed, no connection could be created or wait
+     *             timed out (SQLTimeoutException).
+     */
+    public JavaDB_Connection borrow() throws SQLException {
+	return borrow(borrowTimeout);
+    }
+
+    public JavaDB_Connection borrow(long timeoutMillis) throws SQLException {
+	if (closed) {
+	    throw new SQLException("Connection pool is closed");
+	}
+	long start = System.nanoTime();
+	boolean acquired;
+	try {
+	    acquired = permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+	} catch (InterruptedException ex) {
+	    Thread.currentThread().interrupt();
+	    throw new SQLException(ex);
+	}
+	recordWait(System.nanoTime() - start);
+	if (!acquired) {
+	    timeoutCount.incrementAndGet();
+	    throw new SQLTimeoutException("No connection available after " + timeoutMillis + " ms");
+	}
+
+	boolean success = false;
+	try {
+	    JavaDB_Connection connection = takeIdle();
+	    if (connection == null) {
+		connection = new JavaDB_Connection(provider.getConnection(), statementCacheSize);
+		createdCount.incrementAndGet();
+	    }
+	    for (Map.Entry<String, String> e : statementDefs.entrySet()) {
+		if (!connection.hasStatement(e.getKey())) {
+		    connection.prepareStatement(e.getKey(), e.getValue());
+		}
+	    }
+	    borrowed.add(connection);
+	    success = true;
+	    return connection;
+	} finally {
+	    if (!success) {
+		permits.release();
+	    }
+	}
+    }
+
+    private JavaDB_Connection takeIdle() {
+	evictIdle();
+	IdleConnection ic;
+	// LIFO: most recently used connection has the warmest statement cache
+	while ((ic = idle.pollFirst()) != null) {
+	    if (ic.connection.isValid(validationTimeout)) {
+		return ic.connection;
+	    }
+	    discard(ic.connection);
+	}
+	return null;
+    }
+
+    /**
+     * Give connection back to pool.
+     * 
+     * @param connection
+     *            connection obtained with borrow()
+     */
+    public void release(JavaDB_Connection connection) {
+	if (connection == null) {
+	    return;
+	}
+	if (!borrowed.remove(connection)) {
+	    Logger.getLogger(getClass().getName()).log(Level.WARNING, "Connection doesn't belong to pool or was already released");
+	    return;
+	}
+	try {
+	    Transaction tx = connection.getTransaction();
+	    if (tx != null) {
+		Logger.getLogger(getClass().getName()).log(Level.WARNING, "Connection released with active transaction, rolling back");
+		try {
+		    tx.rollback();
+		} catch (SQLException ex) {
+		    discard(connection);
+		    return;
+		}
+	    }
+	    if (closed || connection.isClosed()) {
+		discard(connection);
+	    } else {
+		idle.offerFirst(new IdleConnection(connection));
+	    }
+	} finally {
+	    permits.release();
+	}
+    }
+
+    /**
+     * Run task asynchronously with a borrowed connection (on
+     * JavaDB_Connection.getDefaultAsyncExecutor(), virtual threads by
+     * default). Connection is released when task completes.
+     * 
+     * @return future completed with result of task, or exceptionally with
+     *         CompletionException wrapping SQLException.
+     */
+    public <T> CompletableFuture<T> submit(final Task<T> task) {
+	return CompletableFuture.supplyAsync(new Supplier<T>() {
+	    public T get() {
+		JavaDB_Connection connection = null;
+		try {
+		    connection = borrow();
+		    return task.call(connection);
+		} catch (SQLException ex) {
+		    throw new CompletionException(ex);
+		} finally {
+		    release(connection);
+		}
+	    }
+	}, JavaDB_Connection.getDefaultAsyncExecutor());
+    }
+
+    /**
+     * Close connections which were idle longer than getMaxIdleTime(). Called
+     * on every borrow, but may also be called periodically.
+     */
+    public void evictIdle() {
+	long limit = System.currentTimeMillis() - maxIdleTime;
+	IdleConnection ic;
+	while ((ic = idle.peekLast()) != null && ic.idleSince < limit) {
+	    if (idle.removeLastOccurrence(ic)) {
+		evictedCount.incrementAndGet();
+		discard(ic.connection);
+	    }
+	}
+    }
+
+    private void discard(JavaDB_Connection connection) {
+	connection.closeConnection();
+    }
+
+    /**
+     * Close all idle connections. Connections which are currently borrowed
+     * will be closed on release.
+     */
+    public void close() {
+	closed = true;
+	Iterator<IdleConnection> it = idle.iterator();
+	while (it.hasNext()) {
+	    IdleConnection ic = it.next();
+	    it.remove();
+	    discard(ic.connection);
+	}
+    }
+
+    public boolean isClosed() {
+	return closed;
+    }
+
+    private void recordWait(long nanos) {
+	borrowCount.incrementAndGet();
+	totalWaitNanos.addAndGet(nanos);
+	long max = maxWaitNanos.get();
+	while (nanos > max && !maxWaitNanos.compareAndSet(max, nanos)) {
+	    max = maxWaitNanos.get();
+	}
+    }
+
+    public int getMaxSize() {
+	return maxSize;
+    }
+
+    public int getActiveCount() {
+	return borrowed.size();
+    }
+
+    public int getIdleCount() {
+	return idle.size();
+    }
+
+    /**
+     * @return number of threads currently waiting in borrow()
+     */
+    public int getWaitingCount() {
+	return permits.getQueueLength();
+    }
+
+    public long getBorrowCount() {
+	return borrowCount.get();
+    }
+
+    public long getTimeoutCount() {
+	return timeoutCount.get();
+    }
+
+    public long getCreatedCount() {
+	return createdCount.get();
+    }
+
+    public long getEvictedCount() {
+	return evictedCount.get();
+    }
+
+    /**
+     * @return total time spent by all callers waiting for a connection
+     */
+    public long getTotalWaitTime(TimeUnit unit) {
+	return unit.convert(totalWaitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxWaitTime(TimeUnit unit) {
+	return unit.convert(maxWaitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return average wait time per borrow() in milliseconds
+     */
+    public double getAverageWaitMillis() {
+	long count = borrowCount.get();
+	if (count == 0) {
+	    return 0;
+	}
+	return totalWaitNanos.get() / 1e6 / count;
+    }
+
+    public long getBorrowTimeout() {
+	return borrowTimeout;
+    }
+
+    public void setBorrowTimeout(long millis) {
+	this.borrowTimeout = millis;
+    }
+
+    public long getMaxIdleTime() {
+	return maxIdleTime;
+    }
+
+    public void setMaxIdleTime(long millis) {
+	this.maxIdleTime = millis;
+    }
+
+    public int getValidationTimeout() {
+	return validationTimeout;
+    }
+
+    /**
+     * @param seconds
+     *            timeout for Connection.isValid() check on borrow.
+     */
+    public void setValidationTimeout(int seconds) {
+	this.validationTimeout = seconds;
+    }
+
+    public int getStatementCacheSize() {
+	return statementCacheSize;
+    }
+
+    /**
+     * @param size
+     *            statement cache size for connections created by this pool.
+     */
+    public void setStatementCacheSize(int size) {
+	this.statementCacheSize = size;
+    }
+
+    @Override
+    public String toString() {
+	return "ConnectionPool[max=" + maxSize + ", active=" + getActiveCount() + ", idle=" + getIdleCount() + ", waiting=" + getWaitingCount()
+		+ ", avgWait=" + getAverageWaitMillis() + "ms, maxWait=" + getMaxWaitTime(TimeUnit.MILLISECONDS) + "ms]";
+    }
+}
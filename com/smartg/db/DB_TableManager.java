@@ -33,14 +33,27 @@ package com.smartg.db;
 import java.lang.reflect.Field;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public abstract class DB_TableManager {
 
     protected JavaDB_Connection jdbc;
     private ArrayList<TableDef> tdList;
+    private ArrayList<UserDefinedType> udtList;
+    private SchemaRegistry<DB_TableManager> schemaRegistry;
+    private boolean registryResolved;
     private HashMap<String, TableDef> map = new HashMap<String, TableDef>();
+    private volatile QueryCache queryCache;
+    private final ConcurrentHashMap<TableDef, WriteBehindBuffer> writeBehind = new ConcurrentHashMap<TableDef, WriteBehindBuffer>();
+    private final ConcurrentHashMap<String, IdAllocator> idAllocators = new ConcurrentHashMap<String, IdAllocator>();
+    private int bulkLoadThreshold = BulkLoader.DEFAULT_THRESHOLD;
 
     public void dbInit() {
 	createTypes();
@@ -50,38 +63,78 @@ public abstract class DB_TableManager {
 
     protected ArrayList<TableDef> getTableList() {
 	if (tdList == null) {
-	    tdList = new ArrayList<TableDef>();
-	    Field[] declaredFields = getClass().getDeclaredFields();
-	    for (Field f : declaredFields) {
-		if (f.getType().equals(TableDef.class)) {
-		    try {
-			TableDef td = getTD(f);
-			tdList.add(td);
+	    ArrayList<TableDef> list = new ArrayList<TableDef>();
+	    SchemaRegistry<DB_TableManager> registry = getSchemaRegistry();
+	    if (registry != null) {
+		for (TableDef td : registry.getTables(this)) {
+		    if (td != null) {
+			list.add(td);
 			map.put(td.tableName, td);
-		    } catch (Throwable ex) {
-			ex.printStackTrace();
+		    }
+		}
+	    } else {
+		Field[] declaredFields = getClass().getDeclaredFields();
+		for (Field f : declaredFields) {
+		    if (f.getType().equals(TableDef.class)) {
+			try {
+			    TableDef td = getTD(f);
+			    list.add(td);
+			    map.put(td.tableName, td);
+			} catch (Throwable ex) {
+			    ex.printStackTrace();
+			}
 		    }
 		}
 	    }
+	    tdList = list;
 	}
 	return tdList;
     }
 
     protected ArrayList<UserDefinedType> getUserDefinedTypes() {
-	ArrayList<UserDefinedType> tdList = new ArrayList<UserDefinedType>();
-	Field[] declaredFields = getClass().getDeclaredFields();
-	for (Field f : declaredFields) {
-	    if (f.getType().equals(UserDefinedType.class)) {
-		try {
-		    UserDefinedType td = getUDT(f);
-		    System.out.println(td.getUserType());
-		    tdList.add(td);
-		} catch (Throwable ex) {
-		    ex.printStackTrace();
+	if (udtList == null) {
+	    ArrayList<UserDefinedType> list = new ArrayList<UserDefinedType>();
+	    SchemaRegistry<DB_TableManager> registry = getSchemaRegistry();
+	    if (registry != null) {
+		list.addAll(registry.getTypes(this));
+	    } else {
+		Field[] declaredFields = getClass().getDeclaredFields();
+		for (Field f : declaredFields) {
+		    if (f.getType().equals(UserDefinedType.class)) {
+			try {
+			    list.add(getUDT(f));
+			} catch (Throwable ex) {
+			    ex.printStackTrace();
+			}
+		    }
 		}
 	    }
+	    udtList = list;
 	}
-	return tdList;
+	return udtList;
+    }
+
+    /**
+     * Returns registry generated for classes annotated with {@link Schema}, or
+     * null if there is none (tables and types are then found with reflection).
+     * Default implementation looks for &lt;Class&gt;_SchemaRegistry once;
+     * subclasses can override it to return generated registry directly.
+     */
+    @SuppressWarnings("unchecked")
+    protected SchemaRegistry<DB_TableManager> getSchemaRegistry() {
+	if (!registryResolved) {
+	    String name = getClass().getName().replace('$', '_') + "_SchemaRegistry";
+	    try {
+		Class<?> c = Class.forName(name, true, getClass().getClassLoader());
+		schemaRegistry = (SchemaRegistry<DB_TableManager>) c.getDeclaredConstructor().newInstance();
+	    } catch (ClassNotFoundException ex) {
+		schemaRegistry = null;
+	    } catch (Exception ex) {
+		Logger.getLogger(getClass().getName()).log(Level.WARNING, "Can't create " + name, ex);
+	    }
+	    registryResolved = true;
+	}
+	return schemaRegistry;
     }
 
     /**
@@ -123,13 +176,21 @@ public abstract class DB_TableManager {
 
     public void createTables() {
 	ArrayList<TableDef> tables = getTableList();
+	SchemaCatalog catalog = null;
+	try {
+	    catalog = jdbc.getCatalog();
+	} catch (SQLException ex) {
+	    Logger.getLogger(getClass().getName()).log(Level.WARNING, ex.getMessage(), ex);
+	}
 	for (TableDef td : tables) {
-	    if (!jdbc.hasTable(td.tableName)) {
+	    boolean exists = catalog != null ? catalog.hasTable(td.tableName) : jdbc.hasTable(td.tableName);
+	    if (!exists) {
 		createTable(td, jdbc);
 	    }
 	}
-
-	jdbc.printTables();
+	if (catalog != null) {
+	    Logger.getLogger(getClass().getName()).fine(catalog.toString());
+	}
     }
 
     private void createTable(TableDef td, JavaDB_Connection jdbc) {
@@ -140,30 +201,31 @@ public abstract class DB_TableManager {
     }
 
     private void prepareInsertStatement(TableDef tableDef) {
-	jdbc.prepareStatement(tableDef.getInsertStatementName(), tableDef.getPreparedInsertStatement());
+	jdbc.prepareStatement(tableDef.getInsertStatementName(), tableDef.getPreparedInsertStatement(), tableDef.getInsertParameterTypes(),
+		tableDef.tableName);
     }
 
     private void prepareSelectStatement(TableDef tableDef, int... conditionColumn) {
-	jdbc.prepareStatement(tableDef.getSelectStatementName(conditionColumn), tableDef.getPreparedSelectStatement(conditionColumn));
+	jdbc.prepareStatement(tableDef.getSelectStatementName(conditionColumn), tableDef.getPreparedSelectStatement(conditionColumn),
+		tableDef.getParameterTypes(conditionColumn), tableDef.tableName);
     }
 
     private void prepareCountStatement(TableDef tableDef, int... conditionColumn) {
-	jdbc.prepareStatement(tableDef.getCountStatementName(conditionColumn), tableDef.getPreparedCountStatement(conditionColumn));
+	jdbc.prepareStatement(tableDef.getCountStatementName(conditionColumn), tableDef.getPreparedCountStatement(conditionColumn),
+		tableDef.getParameterTypes(conditionColumn), tableDef.tableName);
     }
 
     private void prepareSelectStatement(TableDef tableDef) {
-	jdbc.prepareStatement(tableDef.getSelectStatementName(), tableDef.getPreparedSelectStatement());
+	jdbc.prepareStatement(tableDef.getSelectStatementName(), tableDef.getPreparedSelectStatement(), new int[0], tableDef.tableName);
     }
 
     private void prepareCountStatement(TableDef tableDef) {
-	jdbc.prepareStatement(tableDef.getCountStatementName(), tableDef.getPreparedCountStatement());
+	jdbc.prepareStatement(tableDef.getCountStatementName(), tableDef.getPreparedCountStatement(), new int[0], tableDef.tableName);
     }
 
-    // TODO add support for updates
-    @SuppressWarnings("unused")
-    private void prepareUpdateStatement(TableDef tableDef, JavaDB_Connection jdbc, int conditionColumn, int updateColumn) {
-	jdbc.prepareStatement(tableDef.getUpdateStatementName() + conditionColumn + " " + updateColumn,
-		tableDef.getPreparedUpdateStatement(conditionColumn, updateColumn));
+    private void prepareUpdateStatement(TableDef tableDef, int[] updateColumns, int[] conditionColumns) {
+	StatementHandle h = tableDef.getUpdateHandle(updateColumns, conditionColumns);
+	jdbc.prepareStatement(h.getName(), h.getSql(), h.getParameterTypes(), tableDef.tableName);
     }
 
     public void prepareStatements() {
@@ -182,6 +244,49 @@ public abstract class DB_TableManager {
 		prepareSelectStatement(td, next);
 		prepareCountStatement(td, next);
 	    }
+	    Enumeration<int[][]> updates = td.getUpdateColumns();
+	    while (updates.hasMoreElements()) {
+		int[][] next = updates.nextElement();
+		prepareUpdateStatement(td, next[0], next[1]);
+	    }
+	}
+    }
+
+    /**
+     * Enable cache for selectRows/countRows. Inserts and updates made with
+     * this DB_TableManager invalidate cached results of affected table, use
+     * invalidate(TableDef) after other changes.
+     * 
+     * @param maxEntries
+     *            max number of cached results
+     * @param maxBytes
+     *            max (estimated) memory used by cache
+     * @param timeToLive
+     *            time to live of cached results in milliseconds (0 - no
+     *            expiration)
+     */
+    public void enableQueryCache(int maxEntries, long maxBytes, long timeToLive) {
+	queryCache = new QueryCache(maxEntries, maxBytes, timeToLive);
+    }
+
+    public void disableQueryCache() {
+	queryCache = null;
+    }
+
+    /**
+     * @return QueryCache or null if cache is not enabled
+     */
+    public QueryCache getQueryCache() {
+	return queryCache;
+    }
+
+    /**
+     * Remove cached results of table.
+     */
+    public void invalidate(TableDef tableDef) {
+	QueryCache cache = queryCache;
+	if (cache != null) {
+	    cache.invalidate(tableDef.tableName);
 	}
     }
 
@@ -194,7 +299,7 @@ public abstract class DB_TableManager {
     }
 
     public void insert(TableDef tableDef, ArrayList<Object> objects) throws SQLException {
-	jdbc.execute(tableDef.getInsertStatementName(), objects);
+	insert(tableDef, objects.toArray());
     }
 
     public void insert(String tableName, Object... objects) throws SQLException, NullPointerException {
@@ -205,8 +310,283 @@ public abstract class DB_TableManager {
 	insert(td, objects);
     }
 
+    /**
+     * Insert row. If write-behind is enabled for table, row is only queued
+     * (see enableWriteBehind), write errors are then logged and counted by
+     * the buffer (use getWriteBehindBuffer(td).insert() to get future of
+     * row).
+     */
     public void insert(TableDef tableDef, Object... objects) throws SQLException {
-	jdbc.execute(tableDef.getInsertStatementName(), objects);
+	WriteBehindBuffer buffer = writeBehind.get(tableDef);
+	if (buffer != null) {
+	    buffer.insert(objects);
+	    return;
+	}
+	try {
+	    jdbc.execute(tableDef.getInsertHandle(), objects);
+	} finally {
+	    invalidate(tableDef);
+	}
+    }
+
+    /**
+     * Insert row into table with auto increment column.
+     * 
+     * @return generated key
+     */
+    public long insertAndGetKey(TableDef tableDef, Object... objects) throws SQLException {
+	try {
+	    return jdbc.insertAndGetKey(tableDef, objects);
+	} finally {
+	    invalidate(tableDef);
+	}
+    }
+
+    /**
+     * Insert rows in batches of BatchWriter.DEFAULT_BATCH_SIZE and return
+     * generated keys (never uses bulk import).
+     * 
+     * @return keys in order of rows
+     */
+    public long[] insertBatchAndGetKeys(TableDef tableDef, Iterable<Object[]> rows) throws SQLException {
+	return insertBatchAndGetKeys(tableDef, rows, BatchWriter.DEFAULT_BATCH_SIZE);
+    }
+
+    public long[] insertBatchAndGetKeys(final TableDef tableDef, Iterable<Object[]> rows, int batchSize) throws SQLException {
+	BatchWriter writer = jdbc.createInsertKeysWriter(tableDef, batchSize);
+	writer.flushListener = new Runnable() {
+	    public void run() {
+		invalidate(tableDef);
+	    }
+	};
+	try {
+	    for (Object[] row : rows) {
+		writer.add(row);
+	    }
+	} catch (SQLException | RuntimeException ex) {
+	    writer.abort();
+	    throw ex;
+	}
+	writer.close();
+	return writer.getGeneratedKeys();
+    }
+
+    /**
+     * Get binder for insert statement, use it to insert primitive values
+     * without boxing:
+     * 
+     * <pre>
+     * getInsertBinder(td).setLong(1, id).setDouble(2, value).executeUpdate();
+     * </pre>
+     */
+    public StatementBinder getInsertBinder(final TableDef tableDef) throws SQLException {
+	StatementBinder binder = jdbc.getBinder(tableDef.getInsertHandle());
+	if (binder.executeListener == null) {
+	    // invalidate after execution, so concurrent readers can't cache old
+	    // rows under new generation
+	    binder.executeListener = new Runnable() {
+		public void run() {
+		    invalidate(tableDef);
+		}
+	    };
+	}
+	return binder;
+    }
+
+    /**
+     * Insert rows using JDBC batches of BatchWriter.DEFAULT_BATCH_SIZE rows.
+     * Collections larger than bulk load threshold are imported with
+     * bulkLoad on embedded Derby, but only in auto-commit mode (bulk import
+     * commits itself).
+     * 
+     * @param tableDef
+     * @param rows
+     *            values for all columns except auto increment columns.
+     * @return update counts and throughput statistics
+     * @throws SQLException
+     */
+    public BatchResult insertBatch(TableDef tableDef, Iterable<Object[]> rows) throws SQLException {
+	return insertBatch(tableDef, rows, BatchWriter.DEFAULT_BATCH_SIZE, false);
+    }
+
+    public BatchResult insertBatch(TableDef tableDef, Iterable<Object[]> rows, int batchSize, boolean multiRow) throws SQLException {
+	if (rows instanceof Collection && ((Collection<?>) rows).size() >= bulkLoadThreshold && BulkLoader.isSupported(tableDef)
+		&& jdbc.isEmbeddedDerby() && jdbc.getAutoCommit()) {
+	    return bulkLoad(tableDef, rows, false);
+	}
+	BatchWriter writer = createBatchWriter(tableDef, batchSize, multiRow);
+	try {
+	    for (Object[] row : rows) {
+		writer.add(row);
+	    }
+	} catch (SQLException | RuntimeException ex) {
+	    writer.abort();
+	    throw ex;
+	}
+	writer.close();
+	return writer.getResult();
+    }
+
+    /**
+     * @return shared id allocator of BIGINT_SEQ or INTEGER_SEQ column, use it
+     *         to assign ids before insert
+     */
+    public IdAllocator getIdAllocator(TableDef tableDef, int column) throws SQLException {
+	String sequence = tableDef.getSequenceName(column);
+	IdAllocator allocator = idAllocators.get(sequence);
+	if (allocator == null) {
+	    allocator = new IdAllocator(jdbc, tableDef, column);
+	    IdAllocator old = idAllocators.putIfAbsent(sequence, allocator);
+	    if (old != null) {
+		allocator = old;
+	    }
+	}
+	return allocator;
+    }
+
+    public IdAllocator getIdAllocator(TableDef tableDef, String column) throws SQLException {
+	return getIdAllocator(tableDef, tableDef.getColumnIndex(column));
+    }
+
+    /**
+     * Insert row or update row with same key columns (see
+     * TableDef.setKeyColumns) in one statement.
+     */
+    public void upsert(TableDef tableDef, Object... objects) throws SQLException {
+	try {
+	    jdbc.upsert(tableDef, objects);
+	} finally {
+	    invalidate(tableDef);
+	}
+    }
+
+    /**
+     * Upsert rows in batches of BatchWriter.DEFAULT_BATCH_SIZE, e.g. to sync
+     * reference table in one pass.
+     */
+    public BatchResult upsertBatch(TableDef tableDef, Iterable<Object[]> rows) throws SQLException {
+	return upsertBatch(tableDef, rows, BatchWriter.DEFAULT_BATCH_SIZE);
+    }
+
+    public BatchResult upsertBatch(final TableDef tableDef, Iterable<Object[]> rows, int batchSize) throws SQLException {
+	BatchWriter writer = jdbc.createUpsertWriter(tableDef, batchSize);
+	writer.flushListener = new Runnable() {
+	    public void run() {
+		invalidate(tableDef);
+	    }
+	};
+	try {
+	    for (Object[] row : rows) {
+		writer.add(row);
+	    }
+	} catch (SQLException | RuntimeException ex) {
+	    writer.abort();
+	    throw ex;
+	}
+	writer.close();
+	return writer.getResult();
+    }
+
+    /**
+     * Import rows with SYSCS_UTIL.SYSCS_IMPORT_DATA (embedded Derby only).
+     * Table is locked exclusively and indexes are rebuilt after import.
+     * Requires auto-commit mode, import is committed by itself.
+     * 
+     * @param replace
+     *            if true existing rows are deleted
+     */
+    public BatchResult bulkLoad(TableDef tableDef, Iterable<Object[]> rows, boolean replace) throws SQLException {
+	BulkLoader loader = jdbc.createBulkLoader(tableDef);
+	loader.setReplace(replace);
+	try {
+	    return loader.load(rows);
+	} finally {
+	    invalidate(tableDef);
+	}
+    }
+
+    /**
+     * Number of rows above which insertBatch uses bulkLoad (if rows is
+     * Collection, database is embedded Derby and no Transaction is active).
+     * Integer.MAX_VALUE disables bulk loading.
+     */
+    public void setBulkLoadThreshold(int bulkLoadThreshold) {
+	this.bulkLoadThreshold = bulkLoadThreshold;
+    }
+
+    public int getBulkLoadThreshold() {
+	return bulkLoadThreshold;
+    }
+
+    /**
+     * Route insert(TableDef, ...) for table through WriteBehindBuffer: rows are
+     * queued and written in batches on connection from pool, one commit per
+     * batch. Query cache is invalidated after every flush.
+     * 
+     * @param maxRows
+     *            flush when this many rows are queued
+     * @param maxDelayMillis
+     *            flush when oldest row waited this long
+     * @return buffer (for commit() and metrics)
+     */
+    public WriteBehindBuffer enableWriteBehind(final TableDef tableDef, ConnectionPool pool, int maxRows, long maxDelayMillis,
+	    WriteBehindBuffer.Durability durability) throws SQLException {
+	WriteBehindBuffer buffer = new WriteBehindBuffer(pool, tableDef, maxRows, maxDelayMillis, durability);
+	buffer.flushListener = new Runnable() {
+	    public void run() {
+		invalidate(tableDef);
+	    }
+	};
+	WriteBehindBuffer old = writeBehind.put(tableDef, buffer);
+	if (old != null) {
+	    old.close();
+	}
+	return buffer;
+    }
+
+    /**
+     * Flush queued rows and switch table back to direct inserts.
+     */
+    public void disableWriteBehind(TableDef tableDef) throws SQLException {
+	WriteBehindBuffer buffer = writeBehind.remove(tableDef);
+	if (buffer != null) {
+	    buffer.close();
+	}
+    }
+
+    /**
+     * @return write-behind buffer of table or null
+     */
+    public WriteBehindBuffer getWriteBehindBuffer(TableDef tableDef) {
+	return writeBehind.get(tableDef);
+    }
+
+    /**
+     * Start transaction on connection, all following inserts, updates and
+     * batches share one commit. See JavaDB_Connection.begin(Isolation).
+     */
+    public Transaction begin(Transaction.Isolation isolation) throws SQLException {
+	return jdbc.begin(isolation);
+    }
+
+    /**
+     * Run task in transaction, see JavaDB_Connection.inTransaction.
+     */
+    public <T> T inTransaction(Transaction.Isolation isolation, ConnectionPool.Task<T> task) throws SQLException {
+	return jdbc.inTransaction(isolation, task);
+    }
+
+    /**
+     * Create writer for streaming inserts, don't forget to close it.
+     */
+    public BatchWriter createBatchWriter(final TableDef tableDef, int batchSize, boolean multiRow) throws SQLException {
+	BatchWriter writer = jdbc.createBatchWriter(tableDef, batchSize, multiRow);
+	writer.flushListener = new Runnable() {
+	    public void run() {
+		invalidate(tableDef);
+	    }
+	};
+	return writer;
     }
 
     public void select(String tableName, int conditionColumn, Object value) throws SQLException, NullPointerException {
@@ -227,13 +607,27 @@ public abstract class DB_TableManager {
 
 
     public void select(TableDef tableDef, int conditionColumn, Object value) throws SQLException {
-	String name = tableDef.getSelectStatementName(conditionColumn);
-	jdbc.execute(name, new Object[] { value });
+	jdbc.execute(tableDef.getSelectHandle(conditionColumn), new Object[] { value });
     }
 
     public void count(TableDef tableDef, int conditionColumn, Object value) throws SQLException {
-	String name = tableDef.getCountStatementName(conditionColumn);
-	jdbc.execute(name, new Object[] { value });
+	jdbc.execute(tableDef.getCountHandle(conditionColumn), new Object[] { value });
+    }
+
+    public void select(TableDef tableDef, int conditionColumn, int value) throws SQLException {
+	jdbc.execute(tableDef.getSelectHandle(conditionColumn), value);
+    }
+
+    public void select(TableDef tableDef, int conditionColumn, long value) throws SQLException {
+	jdbc.execute(tableDef.getSelectHandle(conditionColumn), value);
+    }
+
+    public void count(TableDef tableDef, int conditionColumn, int value) throws SQLException {
+	jdbc.execute(tableDef.getCountHandle(conditionColumn), value);
+    }
+
+    public void count(TableDef tableDef, int conditionColumn, long value) throws SQLException {
+	jdbc.execute(tableDef.getCountHandle(conditionColumn), value);
     }
 
     public void select(String tableName) throws SQLException, NullPointerException {
@@ -269,23 +663,26 @@ public abstract class DB_TableManager {
     }
 
     public void select(TableDef tableDef, String[] columns, Object... values) throws SQLException {
-	String name = tableDef.getSelectStatementName(columns);
-	jdbc.execute(name, values);
+	jdbc.execute(tableDef.getSelectHandle(columns), values);
     }
 
     public void count(TableDef tableDef, String[] columns, Object... values) throws SQLException {
-	String name = tableDef.getCountStatementName(columns);
-	jdbc.execute(name, values);
+	jdbc.execute(tableDef.getCountHandle(columns), values);
     }
 
     public void select(TableDef tableDef) throws SQLException {
-	jdbc.execute2(tableDef.getSelectStatementName());
+	jdbc.execute(tableDef.getSelectHandle());
     }
 
     public void count(TableDef tableDef) throws SQLException {
-	jdbc.execute2(tableDef.getCountStatementName());
+	jdbc.execute(tableDef.getCountHandle());
     }
 
+    /**
+     * @deprecated statement has two parameters but only update value is
+     *             given, use update(String, int, Object, int, Object)
+     */
+    @Deprecated
     public void update(String tableName, int conditionColumn, int updateColumn, Object value) throws SQLException, NullPointerException {
 	TableDef td = map.get(tableName);
 	if (td == null) {
@@ -294,7 +691,191 @@ public abstract class DB_TableManager {
 	update(td, conditionColumn, updateColumn, value);
     }
 
+    /**
+     * @deprecated statement has two parameters but only update value is
+     *             given, use update(TableDef, int, Object, int, Object)
+     * @throws SQLException
+     *             always
+     */
+    @Deprecated
     public void update(TableDef tableDef, int conditionColumn, int updateColumn, Object value) throws SQLException {
-	jdbc.execute(tableDef.getUpdateStatementName() + conditionColumn + " " + updateColumn, new Object[] { value });
+	throw new SQLException("Condition value is missing, use update(TableDef, int, Object, int, Object)");
+    }
+
+    public int update(String tableName, int conditionColumn, Object conditionValue, int updateColumn, Object value) throws SQLException,
+	    NullPointerException {
+	TableDef td = map.get(tableName);
+	if (td == null) {
+	    throw new NullPointerException("Table not found: " + tableName);
+	}
+	return update(td, conditionColumn, conditionValue, updateColumn, value);
+    }
+
+    /**
+     * Set updateColumn to value in rows where conditionColumn = conditionValue.
+     * 
+     * @return number of updated rows
+     */
+    public int update(TableDef tableDef, int conditionColumn, Object conditionValue, int updateColumn, Object value) throws SQLException {
+	try {
+	    return jdbc.executeUpdate(tableDef.getUpdateHandle(conditionColumn, updateColumn), value, conditionValue);
+	} finally {
+	    invalidate(tableDef);
+	}
+    }
+
+    /**
+     * Set updateColumns to updateValues in rows matching all condition
+     * columns (all rows if there are no condition columns).
+     * 
+     * @return number of updated rows
+     */
+    public int update(TableDef tableDef, int[] updateColumns, Object[] updateValues, int[] conditionColumns, Object... conditionValues)
+	    throws SQLException {
+	if (updateValues.length != updateColumns.length || conditionValues.length != conditionColumns.length) {
+	    throw new SQLException("Number of values doesn't match number of columns");
+	}
+	return update(tableDef, tableDef.getUpdateHandle(updateColumns, conditionColumns), updateValues, conditionValues);
+    }
+
+    public int update(TableDef tableDef, String[] updateColumns, Object[] updateValues, String[] conditionColumns, Object... conditionValues)
+	    throws SQLException {
+	if (updateValues.length != updateColumns.length || conditionValues.length != conditionColumns.length) {
+	    throw new SQLException("Number of values doesn't match number of columns");
+	}
+	return update(tableDef, tableDef.getUpdateHandle(updateColumns, conditionColumns), updateValues, conditionValues);
+    }
+
+    private int update(TableDef tableDef, StatementHandle handle, Object[] updateValues, Object[] conditionValues) throws SQLException {
+	Object[] values = Arrays.copyOf(updateValues, updateValues.length + conditionValues.length);
+	System.arraycopy(conditionValues, 0, values, updateValues.length, conditionValues.length);
+	try {
+	    return jdbc.executeUpdate(handle, values);
+	} finally {
+	    invalidate(tableDef);
+	}
+    }
+
+    /**
+     * Execute update for many rows in batches of
+     * BatchWriter.DEFAULT_BATCH_SIZE.
+     * 
+     * @param rows
+     *            update values followed by condition values
+     */
+    public BatchResult updateBatch(TableDef tableDef, int[] updateColumns, int[] conditionColumns, Iterable<Object[]> rows) throws SQLException {
+	return updateBatch(tableDef, updateColumns, conditionColumns, rows, BatchWriter.DEFAULT_BATCH_SIZE);
+    }
+
+    public BatchResult updateBatch(final TableDef tableDef, int[] updateColumns, int[] conditionColumns, Iterable<Object[]> rows, int batchSize)
+	    throws SQLException {
+	BatchWriter writer = jdbc.createUpdateWriter(tableDef, updateColumns, conditionColumns, batchSize);
+	writer.flushListener = new Runnable() {
+	    public void run() {
+		invalidate(tableDef);
+	    }
+	};
+	try {
+	    for (Object[] row : rows) {
+		writer.add(row);
+	    }
+	} catch (SQLException | RuntimeException ex) {
+	    writer.abort();
+	    throw ex;
+	}
+	writer.close();
+	return writer.getResult();
+    }
+
+    /**
+     * Get first page of keyset pagination.
+     * 
+     * @param keyColumn
+     *            unique (ideally indexed) column, rows are ordered by it
+     * @param pageSize
+     *            number of rows per page
+     */
+    public Page firstPage(TableDef tableDef, int keyColumn, int pageSize) throws SQLException {
+	if (pageSize <= 0) {
+	    throw new IllegalArgumentException("pageSize: " + pageSize);
+	}
+	return toPage(tableDef, keyColumn, pageSize, jdbc.query(tableDef.getFirstPageHandle(keyColumn, pageSize)));
+    }
+
+    /**
+     * Get page which follows page of given token (see Page.getNextToken()).
+     */
+    public Page nextPage(TableDef tableDef, PageToken token) throws SQLException {
+	if (!tableDef.tableName.equals(token.getTableName())) {
+	    throw new IllegalArgumentException("Token of other table: " + token);
+	}
+	int keyColumn = token.getKeyColumn();
+	int pageSize = token.getPageSize();
+	return toPage(tableDef, keyColumn, pageSize, jdbc.query(tableDef.getNextPageHandle(keyColumn, pageSize), token.getLastKey()));
+    }
+
+    private static Page toPage(TableDef tableDef, int keyColumn, int pageSize, List<Row> rows) throws SQLException {
+	if (rows.size() <= pageSize) {
+	    return new Page(rows, null);
+	}
+	rows = rows.subList(0, pageSize);
+	Object lastKey = rows.get(pageSize - 1).get(keyColumn);
+	if (lastKey == null) {
+	    throw new SQLException("NULL key in column " + keyColumn + " of " + tableDef.tableName);
+	}
+	return new Page(rows, new PageToken(tableDef.tableName, keyColumn, pageSize, lastKey));
+    }
+
+    /**
+     * Select rows, result is taken from query cache if enabled.
+     */
+    public List<Row> selectRows(TableDef tableDef, int conditionColumn, Object value) throws SQLException {
+	return cachedQuery(tableDef, tableDef.getSelectHandle(conditionColumn), value);
+    }
+
+    public List<Row> selectRows(TableDef tableDef, String[] columns, Object... values) throws SQLException {
+	return cachedQuery(tableDef, tableDef.getSelectHandle(columns), values);
+    }
+
+    public List<Row> selectRows(TableDef tableDef) throws SQLException {
+	return cachedQuery(tableDef, tableDef.getSelectHandle());
+    }
+
+    /**
+     * Count rows, result is taken from query cache if enabled.
+     */
+    public int countRows(TableDef tableDef, int conditionColumn, Object value) throws SQLException {
+	return toCount(cachedQuery(tableDef, tableDef.getCountHandle(conditionColumn), value));
+    }
+
+    public int countRows(TableDef tableDef, String[] columns, Object... values) throws SQLException {
+	return toCount(cachedQuery(tableDef, tableDef.getCountHandle(columns), values));
+    }
+
+    public int countRows(TableDef tableDef) throws SQLException {
+	return toCount(cachedQuery(tableDef, tableDef.getCountHandle()));
+    }
+
+    private static int toCount(List<Row> rows) {
+	if (rows.isEmpty()) {
+	    return 0;
+	}
+	return ((Number) rows.get(0).get(0)).intValue();
+    }
+
+    private List<Row> cachedQuery(TableDef tableDef, StatementHandle handle, Object... values) throws SQLException {
+	QueryCache cache = queryCache;
+	// rows read inside transaction may be uncommitted
+	if (cache == null || jdbc.getTransaction() != null) {
+	    return jdbc.query(handle, values);
+	}
+	String name = handle.getName();
+	List<Row> rows = cache.get(name, values);
+	if (rows == null) {
+	    long generation = cache.getGeneration(tableDef.tableName);
+	    rows = jdbc.query(handle, values);
+	    cache.put(tableDef.tableName, generation, name, values, rows);
+	}
+	return rows;
     }
 }
@@ -33,13 +33,12 @@ package com.smartg.db;
 import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Vector;
 import java.util.logging.Logger;
 
 import javax.swing.Box;
+import javax.swing.ComboBoxModel;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
@@ -51,7 +50,8 @@ import javax.swing.JTable;
 import javax.swing.JTextField;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
 
 public class DB_Viewer extends JPanel {
 
@@ -62,8 +62,8 @@ public class DB_Viewer extends JPanel {
 	JList<String> tableList;
 	DefaultListModel<String> tableListModel = new DefaultListModel<String>();
 
-	DefaultTableModel dataTableModel = new DefaultTableModel();
-	JTable dataTable = new JTable(dataTableModel);
+	LazyTableModel dataTableModel;
+	JTable dataTable;
 
 	Box box = Box.createHorizontalBox();
 	JComboBox<String> jComboBox = new JComboBox<String>(new String[] { "Select..." });
@@ -74,6 +74,16 @@ public class DB_Viewer extends JPanel {
 	public DB_Viewer(JavaDB_Connection conn) {
 		this.connection = conn;
 		tableList = new JList<String>(tableListModel);
+		dataTableModel = new LazyTableModel(conn);
+		dataTable = new JTable(dataTableModel);
+
+		dataTableModel.addTableModelListener(new TableModelListener() {
+			public void tableChanged(TableModelEvent e) {
+				if (e.getFirstRow() == TableModelEvent.HEADER_ROW) {
+					updateColumns(dataTableModel.getColumnNames());
+				}
+			}
+		});
 
 		setLayout(new BorderLayout());
 		add(new JScrollPane(tableList), BorderLayout.WEST);
@@ -171,78 +181,36 @@ public class DB_Viewer extends JPanel {
 		tableName = tableName.substring(0, tableName.indexOf(" ["));
 		String columnName = "";
 
-		String key = tableName;
-
 		int selectedIndex = jComboBox.getSelectedIndex();
 		if (selectedIndex > 0) {
 			columnName = jComboBox.getSelectedItem().toString();
-			key += "." + columnName;
-			if (!connection.hasStatement(key)) {
-				String sql = "select * from " + tableName + " where " + columnName + " = ? ";
-				connection.prepareStatement(key, sql);
-			}
 		}
 
 		String filter = getFilter();
-		Result result = null;
-		String sql = "select * from " + tableName + " " + filter;
-		if (!connection.isExcelConnection()) {
-			if (filter.isEmpty()) {
-				String sql2 = sql + " FETCH FIRST 1000 ROWs ONLY ";
-				System.out.println(sql2);
-				result = connection.executeAndGetResult(sql2);
-			} else {
-				try {
-					connection.execute(key, new Object[] { filterText.getText() });
-					result = connection.getResult(key);
-
-				} catch (SQLException ex) {
-					ex.printStackTrace();
-				}
-				// result = connection.executeAndGetResult(sql);
-			}
+		String sql = "select * from " + tableName;
+		if (!connection.isExcelConnection() && !filter.isEmpty()) {
+			dataTableModel.setQuery(sql + " where " + columnName + " = ? ", filterText.getText());
 		} else {
-			result = connection.executeAndGetResult(sql);
+			dataTableModel.setQuery(sql + " " + filter);
 		}
-
-		applyResult(result);
 	}
 
-	void applyResult(Result result) {
-		int rowCount = 1000;
-		int columnCount = 0;
-		if (result != null) {
-			TableMetadata resultMetadata = result.getResultMetadata();
-			String[] columnNames = resultMetadata.getColumnNames();
-
-			Vector<String> v = new Vector<String>();
-			v.add("Select...");
-			v.addAll(Arrays.asList(columnNames));
-		
-		jComboBox.setModel(new DefaultComboBoxModel<String>(v));
-
-		columnCount = resultMetadata.getColumnCount();
-		dataTableModel.setColumnCount(columnCount);
-		dataTableModel.setColumnIdentifiers(columnNames);
-		dataTableModel.setRowCount(rowCount);
-
-		String[] columnTypes = resultMetadata.getColumnTypes();
-		for (int i = 0; i < columnCount; i++) {
-			dataTableModel.setValueAt(columnTypes[i], 0, i);
+	/**
+	 * Update filter columns, selection is kept if columns are unchanged.
+	 */
+	private void updateColumns(String[] columnNames) {
+		Vector<String> v = new Vector<String>();
+		v.add("Select...");
+		for (String name : columnNames) {
+			v.add(name);
 		}
+		ComboBoxModel<String> model = jComboBox.getModel();
+		boolean same = model.getSize() == v.size();
+		for (int i = 0; same && i < v.size(); i++) {
+			same = v.get(i).equals(model.getElementAt(i));
 		}
-		
-		for (int row = 1; row < rowCount; row++) {
-			if (result != null && result.hasMoreElements()) {
-				ArrayList<Object> next = result.nextElement();
-				for (int i = 0; i < columnCount; i++) {
-					dataTableModel.setValueAt(next.get(i), row, i);
-				}
-			} else {
-				for (int i = 0; i < columnCount; i++) {
-					dataTableModel.setValueAt("", row, i);
-				}
-			}
+		if (!same) {
+			jComboBox.setModel(new DefaultComboBoxModel<String>(v));
 		}
 	}
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+
+/**
+ * SQL dialect of database, used where standard SQL is not enough (e.g. upsert,
+ * see TableDef.getPreparedUpsertStatement(Dialect)).
+ */
+public enum Dialect {
+    /**
+     * Apache Derby 10.11 or newer (MERGE).
+     */
+    DERBY,
+    /**
+     * PostgreSQL 9.5 or newer (INSERT ... ON CONFLICT).
+     */
+    POSTGRESQL,
+    /**
+     * Anything else, including older Derby and PostgreSQL versions.
+     */
+    OTHER;
+
+    public static Dialect of(DatabaseMetaData metadata) throws SQLException {
+	String product = metadata.getDatabaseProductName();
+	int major = metadata.getDatabaseMajorVersion();
+	int minor = metadata.getDatabaseMinorVersion();
+	if ("Apache Derby".equals(product)) {
+	    return major > 10 || (major == 10 && minor >= 11) ? DERBY : OTHER;
+	}
+	if ("PostgreSQL".equals(product)) {
+	    return major > 9 || (major == 9 && minor >= 5) ? POSTGRESQL : OTHER;
+	}
+	return OTHER;
+    }
+
+    /**
+     * @return true if TableDef can generate upsert statement for this dialect
+     */
+    public boolean supportsUpsert() {
+	return this != OTHER;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client-side id allocator (hi/lo) for BIGINT_SEQ and INTEGER_SEQ columns.
+ * One sequence call reserves block of Column.getBlockSize() ids (sequence
+ * increment), ids of block are handed out without database access and without
+ * locking. Ids are known before insert, so parent and child rows can be
+ * inserted in the same batch.
+ * 
+ * Ids are unique but not gapless: unused ids of block are lost when
+ * application stops. All clients must use the same block size as sequence
+ * increment.
+ */
+public class IdAllocator {
+
+    private static final class Block {
+	final long end;
+	final AtomicLong next;
+
+	Block(long start, long end) {
+	    this.end = end;
+	    this.next = new AtomicLong(start);
+	}
+    }
+
+    private final JavaDB_Connection jdbc;
+    private final StatementHandle handle;
+    private final int blockSize;
+    private volatile Block block = new Block(0, 0);
+    private final AtomicLong blockCount = new AtomicLong();
+
+    /**
+     * @param column
+     *            BIGINT_SEQ or INTEGER_SEQ column
+     * @throws IllegalArgumentException
+     *             if column is not sequence column
+     * @throws SQLException
+     *             also if increment of sequence doesn't match block size
+     */
+    public IdAllocator(JavaDB_Connection jdbc, TableDef tableDef, int column) throws SQLException {
+	Column c = tableDef.getColumn(column);
+	if (!c.isSequence()) {
+	    throw new IllegalArgumentException("Not a sequence column: " + c.getName());
+	}
+	this.jdbc = jdbc;
+	this.blockSize = c.getBlockSize();
+	this.handle = new StatementHandle("nextValueStat_" + tableDef.getSequenceName(column), tableDef.getPreparedNextValueStatement(column,
+		jdbc.getDialect()), new int[0], tableDef.tableName);
+	Long increment = jdbc.getSequenceIncrement(tableDef.getSequenceName(column));
+	if (increment != null && increment.longValue() != blockSize) {
+	    // blocks would overlap
+	    throw new SQLException("Sequence " + tableDef.getSequenceName(column) + " has increment " + increment + ", block size of column is "
+		    + blockSize);
+	}
+    }
+
+    /**
+     * @return next id, reserves new block if current one is used up
+     */
+    public long next() throws SQLException {
+	while (true) {
+	    Block b = block;
+	    long id = b.next.getAndIncrement();
+	    if (id < b.end) {
+		return id;
+	    }
+	    synchronized (this) {
+		if (block == b) {
+		    block = fetch();
+		}
+	    }
+	}
+    }
+
+    /**
+     * @throws ArithmeticException
+     *             if id doesn't fit into int
+     */
+    public int nextInt() throws SQLException {
+	return Math.toIntExact(next());
+    }
+
+    private Block fetch() throws SQLException {
+	List<Row> rows = jdbc.query(handle);
+	if (rows.isEmpty()) {
+	    throw new SQLException("No value from " + handle.getSql());
+	}
+	long start = ((Number) rows.get(0).get(0)).longValue();
+	blockCount.incrementAndGet();
+	return new Block(start, start + blockSize);
+    }
+
+    public int getBlockSize() {
+	return blockSize;
+    }
+
+    /**
+     * @return number of sequence calls
+     */
+    public long getBlockCount() {
+	return blockCount.get();
+    }
+
+    @Override
+    public String toString() {
+	return "IdAllocator[" + handle.getSql() + ", blockSize=" + blockSize + ", blocks=" + getBlockCount() + "]";
+    }
+}
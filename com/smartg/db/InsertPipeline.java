@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parallel insert pipeline: producers put rows into bounded queue, writer
+ * threads (each with own pooled connection) drain it into batched inserts
+ * with periodic commits. put() blocks while queue is full (backpressure).
+ * Incomplete batches are written and committed after max delay (default
+ * DEFAULT_MAX_DELAY_MILLIS), so rows of slow producers don't wait for full
+ * batch.
+ * 
+ * <pre>
+ * InsertPipeline pipeline = new InsertPipeline(pool, td, 4, 10000, 1000, 10);
+ * pipeline.start();
+ * for (...) {
+ *     pipeline.put(a, b, c);
+ * }
+ * pipeline.close();
+ * System.out.println(pipeline);
+ * </pre>
+ * 
+ * Rows of different writers are committed independently, so rows are not
+ * inserted in order and on error rows of other writers may stay committed.
+ * Auto increment columns (e.g. BIGINT_ID) are generated by database and must
+ * not be part of rows.
+ */
+public class InsertPipeline implements AutoCloseable {
+
+    private static final Object[] END = new Object[0];
+    private static final long POLL_MILLIS = 100;
+
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 1000;
+
+    private final ConnectionPool pool;
+    private final TableDef tableDef;
+    private final int batchSize;
+    private final int commitInterval;
+    private final ArrayBlockingQueue<Object[]> queue;
+    private final ArrayList<Writer> writers = new ArrayList<Writer>();
+
+    private final AtomicLong blockedNanos = new AtomicLong();
+    private volatile long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_DELAY_MILLIS);
+    private volatile SQLException failure;
+    private boolean started;
+    private boolean closed;
+    private long startTime;
+    private long endTime;
+
+    /**
+     * @param pool
+     *            pool with at least writerCount connections
+     * @param tableDef
+     *            table
+     * @param writerCount
+     *            number of writer threads
+     * @param queueCapacity
+     *            max number of queued rows
+     * @param batchSize
+     *            rows per batch
+     * @param commitInterval
+     *            commit every commitInterval batches
+     */
+    public InsertPipeline(ConnectionPool pool, TableDef tableDef, int writerCount, int queueCapacity, int batchSize, int commitInterval) {
+	if (writerCount <= 0) {
+	    throw new IllegalArgumentException("writerCount: " + writerCount);
+	}
+	this.pool = pool;
+	this.tableDef = tableDef;
+	this.batchSize = batchSize;
+	this.commitInterval = commitInterval;
+	this.queue = new ArrayBlockingQueue<Object[]>(queueCapacity);
+	for (int i = 0; i < writerCount; i++) {
+	    writers.add(new Writer(i));
+	}
+    }
+
+    /**
+     * Set max time a row may wait in incomplete batch before it is written
+     * and committed.
+     */
+    public void setMaxDelay(long delay, TimeUnit unit) {
+	if (delay <= 0) {
+	    throw new IllegalArgumentException("delay: " + delay);
+	}
+	maxDelayNanos = unit.toNanos(delay);
+    }
+
+    public long getMaxDelay(TimeUnit unit) {
+	return unit.convert(maxDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Start writer threads.
+     */
+    public synchronized void start() {
+	if (started) {
+	    throw new IllegalStateException("Already started");
+	}
+	started = true;
+	startTime = System.nanoTime();
+	for (Writer w : writers) {
+	    w.start();
+	}
+    }
+
+    /**
+     * Queue row, blocks while queue is full.
+     * 
+     * @param values
+     *            values for all columns except auto increment columns
+     * @throws SQLException
+     *             if pipeline is closed or one of writers failed
+     */
+    public void put(Object... values) throws SQLException, InterruptedException {
+	if (closed) {
+	    throw new SQLException("InsertPipeline is closed");
+	}
+	checkFailure();
+	if (values.length != tableDef.getColumnsLengthForInsert()) {
+	    throw new SQLException("Expected " + tableDef.getColumnsLengthForInsert() + " values, got " + values.length);
+	}
+	if (queue.offer(values)) {
+	    return;
+	}
+	long start = System.nanoTime();
+	try {
+	    while (!queue.offer(values, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+		checkFailure();
+	    }
+	} finally {
+	    blockedNanos.addAndGet(System.nanoTime() - start);
+	}
+    }
+
+    private void checkFailure() throws SQLException {
+	SQLException ex = failure;
+	if (ex != null) {
+	    throw new SQLException("Insert failed: " + ex.getMessage(), ex.getSQLState(), ex);
+	}
+    }
+
+    /**
+     * Write remaining rows, wait for writer threads and return connections to
+     * pool.
+     * 
+     * @throws SQLException
+     *             if one of writers failed
+     */
+    public void close() throws SQLException {
+	synchronized (this) {
+	    if (closed) {
+		return;
+	    }
+	    closed = true;
+	}
+	try {
+	    if (started) {
+		for (int i = 0; i < writers.size(); i++) {
+		    while (!queue.offer(END, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+			if (failure != null) {
+			    break;
+			}
+		    }
+		}
+		for (Writer w : writers) {
+		    w.join();
+		}
+	    }
+	} catch (InterruptedException ex) {
+	    Thread.currentThread().interrupt();
+	    throw new SQLException("Interrupted", ex);
+	} finally {
+	    endTime = System.nanoTime();
+	}
+	checkFailure();
+    }
+
+    /**
+     * @return statistics of each writer (rows/s measures database time of
+     *         writer).
+     */
+    public List<BatchResult> getWriterResults() {
+	ArrayList<BatchResult> list = new ArrayList<BatchResult>();
+	for (Writer w : writers) {
+	    list.add(w.result);
+	}
+	return Collections.unmodifiableList(list);
+    }
+
+    public long getRowCount() {
+	long rows = 0;
+	for (Writer w : writers) {
+	    rows += w.result.getRowCount();
+	}
+	return rows;
+    }
+
+    /**
+     * @return total rows per second (wall clock time since start)
+     */
+    public double getRowsPerSecond() {
+	long end = endTime != 0 ? endTime : System.nanoTime();
+	long time = end - startTime;
+	if (!started || time <= 0) {
+	    return 0;
+	}
+	return getRowCount() * 1e9 / time;
+    }
+
+    /**
+     * @return time producers spent waiting for free space in queue
+     */
+    public long getBlockedTime(TimeUnit unit) {
+	return unit.convert(blockedNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public int getQueueSize() {
+	return queue.size();
+    }
+
+    @Override
+    public String toString() {
+	StringBuilder sb = new StringBuilder("InsertPipeline[");
+	sb.append(tableDef.tableName);
+	sb.append(", rows=").append(getRowCount());
+	sb.append(", rows/s=").append((long) getRowsPerSecond());
+	sb.append(", blocked=").append(getBlockedTime(TimeUnit.MILLISECONDS)).append("ms");
+	for (Writer w : writers) {
+	    sb.append(", writer").append(w.index).append(": rows/s=").append((long) w.result.getRowsPerSecond());
+	}
+	return sb.append("]").toString();
+    }
+
+    private class Writer extends Thread {
+	final int index;
+	volatile BatchResult result = new BatchResult();
+
+	Writer(int index) {
+	    super("InsertPipeline-" + tableDef.tableName + "-" + index);
+	    this.index = index;
+	}
+
+	@Override
+	public void run() {
+	    JavaDB_Connection jdbc = null;
+	    BatchWriter writer = null;
+	    try {
+		jdbc = pool.borrow();
+		writer = jdbc.createBatchWriter(tableDef, batchSize, false);
+		writer.setCommitInterval(commitInterval);
+		result = writer.getResult();
+		// time of oldest row which may be not committed yet (0 if none)
+		long firstUncommitted = 0;
+		while (failure == null) {
+		    Object[] row = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+		    if (row == END) {
+			writer.close();
+			writer = null;
+			break;
+		    }
+		    if (row != null) {
+			if (firstUncommitted == 0) {
+			    firstUncommitted = System.nanoTime();
+			}
+			writer.add(row);
+		    }
+		    if (firstUncommitted != 0 && System.nanoTime() - firstUncommitted >= maxDelayNanos) {
+			writer.commit();
+			firstUncommitted = 0;
+		    }
+		}
+	    } catch (SQLException ex) {
+		fail(ex);
+	    } catch (InterruptedException ex) {
+		fail(new SQLException("Interrupted", ex));
+	    } finally {
+		if (writer != null) {
+		    try {
+			writer.abort();
+		    } catch (SQLException ex) {
+			Logger.getLogger(getClass().getName()).log(Level.WARNING, ex.getMessage(), ex);
+		    }
+		}
+		if (jdbc != null) {
+		    pool.release(jdbc);
+		}
+	    }
+	}
+
+	private void fail(SQLException ex) {
+	    synchronized (InsertPipeline.this) {
+		if (failure == null) {
+		    failure = ex;
+		}
+	    }
+	    Logger.getLogger(getClass().getName()).log(Level.SEVERE, getName() + ": " + ex.getMessage(), ex);
+	}
+    }
+}
@@ -39,17 +39,37 @@ abstract class JDB_Action<E> {
 
     protected abstract E dbAction() throws SQLException;
 
+    /**
+     * @return name for StatementMetrics or null if action should not be
+     *         measured.
+     */
+    String getMetricsName() {
+	return null;
+    }
+
     private void callAction() {
 	if (!ready) {
 	    ready = true;
 	    E result = null;
 	    SQLException lastError = null;
 	    boolean success = true;
+	    StatementStats stats = null;
+	    String metricsName = getMetricsName();
+	    if (metricsName != null && StatementMetrics.getDefault().isEnabled()) {
+		stats = StatementMetrics.getDefault().forStatement(metricsName, null);
+	    }
+	    long start = stats != null ? System.nanoTime() : 0;
 	    try {
 		result = dbAction();
+		if (stats != null) {
+		    stats.recordExecute(0, System.nanoTime() - start);
+		}
 	    } catch (SQLException ex) {
 		lastError = ex;
 		success = false;
+		if (stats != null) {
+		    stats.recordError();
+		}
 	    }
 	    finally {
 		if(actionResult == null) {
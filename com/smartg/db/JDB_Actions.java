@@ -35,24 +35,49 @@ import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
 public class JDB_Actions {
 
-    protected HashMap<String, PS_Wrapper> statements = new HashMap<String, PS_Wrapper>();
-    protected HashMap<String, String> statementDefs = new HashMap<String, String>();
-    protected HashMap<String, TableMetadata> tableMetadata = new HashMap<String, TableMetadata>();
+    protected final StatementCache statements;
+    protected ConcurrentHashMap<String, String> statementDefs = new ConcurrentHashMap<String, String>();
+    protected ConcurrentHashMap<String, int[]> statementTypes = new ConcurrentHashMap<String, int[]>();
+    protected ConcurrentHashMap<String, String> statementTables = new ConcurrentHashMap<String, String>();
+    protected ConcurrentHashMap<String, TableMetadata> tableMetadata = new ConcurrentHashMap<String, TableMetadata>();
+    private volatile SchemaCatalog catalog;
+
+    private static final int SLOT_COUNT = 64;
+
+    /**
+     * Direct mapped front of StatementCache for StatementHandles, indexed by
+     * (handle id % SLOT_COUNT). Statements of handles are kept (and evicted)
+     * by StatementCache, slots only save cache lookup. Guarded by lock.
+     */
+    private final PS_Wrapper[] slots = new PS_Wrapper[SLOT_COUNT];
+    private final ConcurrentHashMap<String, StatementHandle> handles = new ConcurrentHashMap<String, StatementHandle>();
 
     protected SQLException lastError;
 
+    /**
+     * Serializes use of this connection. ReentrantLock is used instead of
+     * monitors, so virtual threads are not pinned while waiting for database.
+     */
+    protected final ReentrantLock lock = new ReentrantLock();
+
     protected final Statement defaultStatement;
 
     private final Connection connection;
 
     protected JDB_Actions(Connection connection) throws SQLException {
+	this(connection, StatementCache.DEFAULT_MAX_SIZE);
+    }
+
+    protected JDB_Actions(Connection connection, int statementCacheSize) throws SQLException {
 	this.connection = connection;
+	this.statements = new StatementCache(statementCacheSize);
 	defaultStatement = connection.createStatement();
     }
 
@@ -60,21 +85,90 @@ public class JDB_Actions {
 	return connection.prepareStatement(sql);
     }
 
+    /**
+     * @param autoGeneratedKeys
+     *            Statement.RETURN_GENERATED_KEYS or
+     *            Statement.NO_GENERATED_KEYS
+     */
+    protected PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+	return connection.prepareStatement(sql, autoGeneratedKeys);
+    }
+
+    /**
+     * Lock which serializes use of this connection. Hold it while binder
+     * returned by getBinder is used.
+     */
+    public ReentrantLock getLock() {
+	return lock;
+    }
+
     protected DatabaseMetaData getDatabaseMetaData() throws SQLException {
 	return connection.getMetaData();
     }
 
+    protected Connection getConnection() {
+	return connection;
+    }
+
     public void closeConnection() {
-	Collection<PS_Wrapper> values = statements.values();
-	for (PS_Wrapper ps : values) {
-	    ps.close();
+	lock.lock();
+	try {
+	    Arrays.fill(slots, null);
+	} finally {
+	    lock.unlock();
 	}
+	statements.clear();
 	try {
 	    connection.close();
 	} catch (SQLException ex) {
 	    printSQLException(ex, true);
 	}
-	statements.clear();
+    }
+
+    /**
+     * @return cache of prepared statements of this connection (use it to
+     *         change cache size or to get cache statistics).
+     */
+    public StatementCache getStatementCache() {
+	return statements;
+    }
+
+    /**
+     * @return snapshot of database schema, loaded on first use and after DDL
+     *         executed through this connection.
+     * @throws SQLException
+     */
+    public SchemaCatalog getCatalog() throws SQLException {
+	SchemaCatalog c = catalog;
+	if (c == null) {
+	    c = SchemaCatalog.load(connection);
+	    catalog = c;
+	}
+	return c;
+    }
+
+    /**
+     * Load schema catalog again (call it after schema was changed by other
+     * connection).
+     */
+    public SchemaCatalog refreshCatalog() throws SQLException {
+	invalidateCatalog();
+	return getCatalog();
+    }
+
+    /**
+     * Forget schema catalog and table metadata, they are loaded again on
+     * next use.
+     */
+    public void invalidateCatalog() {
+	catalog = null;
+	tableMetadata.clear();
+    }
+
+    private static boolean isDDL(String sql) {
+	String s = sql.trim();
+	return s.regionMatches(true, 0, "CREATE", 0, 6) || s.regionMatches(true, 0, "DROP", 0, 4) || s.regionMatches(true, 0, "ALTER", 0, 5)
+		|| s.regionMatches(true, 0, "RENAME", 0, 6);
     }
 
     public class ExecuteSQL extends JDB_Action<Boolean> {
@@ -87,7 +181,18 @@ public class JDB_Actions {
 	@Override
 	protected Boolean dbAction() throws SQLException {
 	    Logger.getLogger(getClass().getName()).info(sql);
-	    return defaultStatement.execute(sql);
+	    try {
+		return defaultStatement.execute(sql);
+	    } finally {
+		if (isDDL(sql)) {
+		    invalidateCatalog();
+		}
+	    }
+	}
+
+	@Override
+	String getMetricsName() {
+	    return StatementMetrics.ADHOC;
 	}
     }
 
@@ -101,13 +206,24 @@ public class JDB_Actions {
 
 	@Override
 	protected TableMetadata dbAction() throws SQLException {
-	    Result result = executeAndGetResult("SELECT * FROM " + tableName + " FETCH FIRST ROW ONLY");
-	    if (result != null) {
-		TableMetadata tm = result.getResultMetadata();
+	    SchemaCatalog c = catalog;
+	    c = c != null ? c.refresh(connection, tableName) : SchemaCatalog.load(connection);
+	    catalog = c;
+	    TableMetadata tm = c.getTable(tableName);
+	    if (tm == null) {
+		// driver without getColumns() support (e.g. Excel)
+		Result result = executeAndGetResult("SELECT * FROM " + tableName + " FETCH FIRST ROW ONLY");
+		if (result != null) {
+		    tm = result.getResultMetadata().snapshot();
+		    result.close();
+		}
+	    }
+	    if (tm != null) {
 		tableMetadata.put(tableName, tm);
-		return tm;
+	    } else {
+		tableMetadata.remove(tableName);
 	    }
-	    return null;
+	    return tm;
 	}
 
 	boolean success() {
@@ -134,28 +250,74 @@ public class JDB_Actions {
      * @param sql
      * @return Result or null (check getLastError() in latter case).
      */
-    public synchronized Result executeAndGetResult(String sql) {
-	ExecuteSQL esql = new ExecuteSQL(sql);
-	ActionResult<Boolean> execute = esql.execute();
-	if (execute != null && execute.result != null && execute.result) {
-	    return new GetResultSet(null).execute().result;
+    public Result executeAndGetResult(String sql) {
+	lock.lock();
+	try {
+	    ExecuteSQL esql = new ExecuteSQL(sql);
+	    ActionResult<Boolean> execute = esql.execute();
+	    if (execute != null && execute.result != null && execute.result) {
+		return new GetResultSet(null).execute().result;
+	    }
+	    return null;
+	} finally {
+	    lock.unlock();
 	}
-	return null;
     }
 
     protected PS_Wrapper get(String name) throws SQLException {
 	PS_Wrapper psWrapper = statements.get(name);
 	if (psWrapper == null) {
-	    String sdef = statementDefs.get(name);
-	    if (sdef != null) {
-		psWrapper = prepareStatement0(name, sdef);
-	    } else {
-		throw new SQLException("No such statement: " + name);
+	    lock.lock();
+	    try {
+		psWrapper = statements.peek(name);
+		if (psWrapper == null) {
+		    String sdef = statementDefs.get(name);
+		    StatementHandle handle = handles.get(name);
+		    if (handle != null) {
+			psWrapper = get(handle);
+		    } else if (sdef != null) {
+			psWrapper = prepareStatement0(name, sdef);
+		    } else {
+			throw new SQLException("No such statement: " + name);
+		    }
+		}
+	    } finally {
+		lock.unlock();
 	    }
 	}
 	return psWrapper;
     }
 
+    /**
+     * Get statement of handle, statement is prepared on first use and kept in
+     * StatementCache under handle name. Statement may be evicted from cache
+     * once lock is released, so caller should hold lock while it uses the
+     * statement.
+     */
+    protected PS_Wrapper get(StatementHandle handle) throws SQLException {
+	lock.lock();
+	try {
+	    int slot = handle.id & (SLOT_COUNT - 1);
+	    PS_Wrapper psWrapper = slots[slot];
+	    if (psWrapper != null && psWrapper.handle == handle && psWrapper.isOpen()) {
+		return psWrapper;
+	    }
+	    String name = handle.getName();
+	    psWrapper = statements.get(name);
+	    if (psWrapper == null || !psWrapper.isOpen() || !psWrapper.sql.equals(handle.getSql())
+		    || psWrapper.returnGeneratedKeys != handle.isReturnGeneratedKeys()) {
+		handles.put(name, handle);
+		psWrapper = createWrapper(name, handle.getSql(), handle.types(), handle.getTable(), handle.isReturnGeneratedKeys());
+		statements.put(name, psWrapper);
+	    }
+	    psWrapper.handle = handle;
+	    slots[slot] = psWrapper;
+	    return psWrapper;
+	} finally {
+	    lock.unlock();
+	}
+    }
+
     private Result getResult0(String name) throws SQLException {
 	if (name == null) {
 	    return new Result(defaultStatement.getResultSet());
@@ -165,17 +327,25 @@ public class JDB_Actions {
     }
 
     private PS_Wrapper prepareStatement0(String name, String sql) throws SQLException {
-	PS_Wrapper s = statements.get(name);
+	PS_Wrapper s = statements.peek(name);
 	if (s != null && s.sql.equalsIgnoreCase(sql)) {
 	    System.err.println("PreparedStatement already exists: " + sql);
 	    return s;
 	}
-	PreparedStatement ps = prepareStatement(sql);
-	PS_Wrapper psw = new PS_Wrapper(ps, sql);
+	PS_Wrapper psw = createWrapper(name, sql, statementTypes.get(name), statementTables.get(name), false);
 	statements.put(name, psw);
 	return psw;
     }
 
+    private PS_Wrapper createWrapper(String name, String sql, int[] types, String table, boolean returnGeneratedKeys) throws SQLException {
+	PreparedStatement ps = returnGeneratedKeys ? prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : prepareStatement(sql);
+	PS_Wrapper psw = new PS_Wrapper(ps, sql, types);
+	psw.name = name;
+	psw.table = table;
+	psw.returnGeneratedKeys = returnGeneratedKeys;
+	return psw;
+    }
+
     public static void printSQLException(SQLException ex, boolean printStackTraces) {
 	while (ex != null) {
 	    System.err.println("\n----- SQLException -----"); //$NON-NLS-1$
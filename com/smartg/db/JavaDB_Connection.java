@@ -31,12 +31,28 @@ package com.smartg.db;
 
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 public class JavaDB_Connection extends JDB_Actions {
 
@@ -44,6 +60,17 @@ public class JavaDB_Connection extends JDB_Actions {
 	super(connection);
     }
 
+    /**
+     * @param connection
+     * @param statementCacheSize
+     *            max number of prepared statements kept open (least recently
+     *            used statements are closed).
+     * @throws SQLException
+     */
+    public JavaDB_Connection(Connection connection, int statementCacheSize) throws SQLException {
+	super(connection, statementCacheSize);
+    }
+
     public SQLException getLastError() {
 	return lastError;
     }
@@ -70,6 +97,35 @@ public class JavaDB_Connection extends JDB_Actions {
 	statementDefs.put(name, sql);
     }
 
+    /**
+     * Create prepared statement with known parameter types. Parameters are
+     * bound with matching typed setters instead of setObject. Without types
+     * they are read from ParameterMetaData.
+     * 
+     * @param name
+     *            statement name (can be used to access it)
+     * @param sql
+     * @param types
+     *            parameter types (java.sql.Types)
+     */
+    public void prepareStatement(String name, String sql, int[] types) {
+	if (types != null) {
+	    statementTypes.put(name, types);
+	} else {
+	    statementTypes.remove(name);
+	}
+	statementDefs.put(name, sql);
+    }
+
+    /**
+     * Create prepared statement of table, statement metrics are added to
+     * table metrics too.
+     */
+    void prepareStatement(String name, String sql, int[] types, String tableName) {
+	statementTables.put(name, tableName);
+	prepareStatement(name, sql, types);
+    }
+
     public boolean hasStatement(String name) {
 	return statementDefs.get(name) != null;
     }
@@ -105,17 +161,77 @@ public class JavaDB_Connection extends JDB_Actions {
 	boolean success = execute(sql);
 	if (success) {
 	    colenum = td.columns();
+	    int index = 0;
 	    while (colenum.hasMoreElements()) {
 		Column c = colenum.nextElement();
 		if (c.needIndex()) {
 		    sql = "CREATE INDEX INDEX_" + td.tableName + "_" + c.getName() + " ON " + td.tableName + " (" + c.getName() + ")";
 		    execute(sql);
 		}
+		if (c.isSequence()) {
+		    createSequence(td, index);
+		}
+		index++;
 	    }
 	}
 	return success;
     }
 
+    /**
+     * Create sequence of column. Sequence left over from dropped table is
+     * dropped first: table is new, and increment of old sequence may differ
+     * from block size of column (IdAllocator would hand out overlapping ids).
+     */
+    private void createSequence(TableDef td, int column) {
+	try {
+	    if (getSequenceIncrement(td.getSequenceName(column)) != null) {
+		execute(td.getPreparedDropSequenceStatement(column));
+	    }
+	} catch (SQLException ex) {
+	    Logger.getLogger(getClass().getName()).log(Level.WARNING, "Can't check sequence " + td.getSequenceName(column), ex);
+	}
+	execute(td.getPreparedCreateSequenceStatement(column));
+    }
+
+    /**
+     * @return increment of sequence in current schema, null if there is no
+     *         such sequence or dialect is Dialect.OTHER (not checked)
+     */
+    Long getSequenceIncrement(String sequence) throws SQLException {
+	String sql;
+	switch (getDialect()) {
+	case DERBY:
+	    sequence = sequence.toUpperCase();
+	    sql = "SELECT s.INCREMENT FROM SYS.SYSSEQUENCES s, SYS.SYSSCHEMAS c WHERE s.SCHEMAID = c.SCHEMAID AND c.SCHEMANAME = CURRENT SCHEMA"
+		    + " AND s.SEQUENCENAME = ?";
+	    break;
+	case POSTGRESQL:
+	    sequence = sequence.toLowerCase();
+	    sql = "SELECT CAST(increment AS BIGINT) FROM information_schema.sequences WHERE sequence_schema = current_schema()"
+		    + " AND sequence_name = ?";
+	    break;
+	default:
+	    return null;
+	}
+	lock.lock();
+	try {
+	    PreparedStatement ps = prepareStatement(sql);
+	    try {
+		ps.setString(1, sequence);
+		ResultSet rs = ps.executeQuery();
+		try {
+		    return rs.next() ? Long.valueOf(rs.getLong(1)) : null;
+		} finally {
+		    rs.close();
+		}
+	    } finally {
+		ps.close();
+	    }
+	} finally {
+	    lock.unlock();
+	}
+    }
+
     public void dropTable(String name) {
 	execute("drop table " + name);
     }
@@ -129,8 +245,17 @@ public class JavaDB_Connection extends JDB_Actions {
     public TableMetadata getTableMetadata(String tableName) {
 	TableMetadata tm = tableMetadata.get(tableName);
 	if (tm == null) {
-	    RefreshTableMetadata a = new RefreshTableMetadata(tableName);
-	    tm = a.execute().result;
+	    try {
+		tm = getCatalog().getTable(tableName);
+	    } catch (SQLException ex) {
+		lastError = ex;
+	    }
+	    if (tm != null) {
+		tableMetadata.put(tableName, tm);
+	    } else {
+		RefreshTableMetadata a = new RefreshTableMetadata(tableName);
+		tm = a.execute().result;
+	    }
 	}
 	return tm;
     }
@@ -157,13 +282,23 @@ public class JavaDB_Connection extends JDB_Actions {
      * @throws SQLException
      */
     public boolean execute(String name, List<Object> values) throws SQLException {
-	PS_Wrapper psWrapper = get(name);
-	return psWrapper.execute(values);
+	lock.lock();
+	try {
+	    PS_Wrapper psWrapper = get(name);
+	    return psWrapper.execute(values);
+	} finally {
+	    lock.unlock();
+	}
     }
 
     public boolean execute(String name, List<Object> values, List<Integer> indexes) throws SQLException {
-	PS_Wrapper psWrapper = get(name);
-	return psWrapper.execute(values, indexes);
+	lock.lock();
+	try {
+	    PS_Wrapper psWrapper = get(name);
+	    return psWrapper.execute(values, indexes);
+	} finally {
+	    lock.unlock();
+	}
     }
 
     /**
@@ -185,9 +320,312 @@ public class JavaDB_Connection extends JDB_Actions {
 	return execute(name, Arrays.asList(values), Arrays.asList(indexes));
     }
 
+    /**
+     * Create writer for JDBC batch inserts into given table.
+     * 
+     * @param td
+     *            table
+     * @param batchSize
+     *            number of rows per executeBatch()
+     * @param multiRow
+     *            if true, each batch is sent as one multi-row INSERT statement
+     *            instead of addBatch/executeBatch.
+     * @return BatchWriter
+     * @throws SQLException
+     */
+    public BatchWriter createBatchWriter(TableDef td, int batchSize, boolean multiRow) throws SQLException {
+	return new BatchWriter(this, td, batchSize, multiRow);
+    }
+
+    /**
+     * Create insert writer which collects generated keys of table's auto
+     * increment column, see BatchWriter.getGeneratedKeys(). With Derby rows
+     * are executed one by one (in one transaction), because Derby returns
+     * only last key of batch.
+     * 
+     * @throws IllegalStateException
+     *             if table has no auto increment column
+     */
+    public BatchWriter createInsertKeysWriter(TableDef td, int batchSize) throws SQLException {
+	return new BatchWriter(this, td, batchSize);
+    }
+
+    /**
+     * Insert row and return generated key of auto increment column.
+     * 
+     * @throws IllegalStateException
+     *             if table has no auto increment column
+     */
+    public long insertAndGetKey(TableDef td, Object... values) throws SQLException {
+	StatementHandle handle = td.getInsertKeysHandle();
+	lock.lock();
+	try {
+	    PS_Wrapper ps = get(handle);
+	    ps.executeUpdate(Collections.singletonList(values));
+	    long[] key = new long[1];
+	    if (ps.readGeneratedKeys(key, 0) != 1) {
+		throw new SQLException("No generated key: " + handle.getSql());
+	    }
+	    return key[0];
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Create bulk loader (SYSCS_UTIL.SYSCS_IMPORT_DATA) for given table. Only
+     * embedded Derby is supported, see isEmbeddedDerby().
+     */
+    public BulkLoader createBulkLoader(TableDef td) {
+	return new BulkLoader(this, td);
+    }
+
+    /**
+     * @return true if this is connection to embedded Derby database (import
+     *         files have to be accessible for database engine).
+     */
+    public boolean isEmbeddedDerby() {
+	String url = getURL();
+	return url != null && url.startsWith("jdbc:derby:") && !url.startsWith("jdbc:derby://");
+    }
+
+    private volatile Dialect dialect;
+
+    /**
+     * @return SQL dialect of database (from DatabaseMetaData)
+     */
+    public Dialect getDialect() throws SQLException {
+	if (dialect == null) {
+	    dialect = Dialect.of(getDatabaseMetaData());
+	}
+	return dialect;
+    }
+
+    private Dialect getUpsertDialect(TableDef td) throws SQLException {
+	Dialect d = getDialect();
+	if (!d.supportsUpsert()) {
+	    throw new SQLFeatureNotSupportedException("Upsert is not supported for " + getDatabaseMetaData().getDatabaseProductName() + " "
+		    + getDatabaseMetaData().getDatabaseProductVersion());
+	}
+	if (td.getKeyColumns().length == 0) {
+	    throw new SQLException("No key columns for " + td.tableName + ", see TableDef.setKeyColumns");
+	}
+	return d;
+    }
+
+    /**
+     * Insert row or update row with same key columns (TableDef.setKeyColumns).
+     * 
+     * @param values
+     *            values for all columns except auto increment columns
+     * @throws SQLFeatureNotSupportedException
+     *             if database doesn't support upsert (see Dialect)
+     */
+    public boolean upsert(TableDef td, Object... values) throws SQLException {
+	Dialect d = getUpsertDialect(td);
+	if (values.length != td.getColumnsLengthForInsert()) {
+	    throw new SQLException("Expected " + td.getColumnsLengthForInsert() + " values, got " + values.length);
+	}
+	return execute(td.getUpsertHandle(d), BatchWriter.permute(values, td.getUpsertParameterIndexes(d)));
+    }
+
+    /**
+     * Create writer for batched updates, rows are update values followed by
+     * condition values (see TableDef.getUpdateHandle(int[], int[])).
+     */
+    public BatchWriter createUpdateWriter(TableDef td, int[] updateColumns, int[] conditionColumns, int batchSize) throws SQLException {
+	return new BatchWriter(this, td, batchSize, td.getUpdateHandle(updateColumns, conditionColumns), null);
+    }
+
+    /**
+     * Create writer for batched upserts, see upsert(TableDef, Object...).
+     */
+    public BatchWriter createUpsertWriter(TableDef td, int batchSize) throws SQLException {
+	Dialect d = getUpsertDialect(td);
+	return new BatchWriter(this, td, batchSize, td.getUpsertHandle(d), td.getUpsertParameterIndexes(d));
+    }
+
+    /**
+     * Get binder for primitive parameter values of prepared statement. Binder
+     * is not thread safe, caller must hold getLock() while parameters are set
+     * and statement is executed.
+     * 
+     * @param name
+     *            statement name
+     * @return StatementBinder
+     * @throws SQLException
+     */
+    public StatementBinder getBinder(String name) throws SQLException {
+	return get(name).binder();
+    }
+
+    /**
+     * Execute prepared statement with one int parameter (without boxing).
+     */
+    public boolean execute(String name, int value) throws SQLException {
+	lock.lock();
+	try {
+	    return get(name).binder().setInt(1, value).execute();
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Execute prepared statement with one long parameter (without boxing).
+     */
+    public boolean execute(String name, long value) throws SQLException {
+	lock.lock();
+	try {
+	    return get(name).binder().setLong(1, value).execute();
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    public boolean execute(String name, double value) throws SQLException {
+	lock.lock();
+	try {
+	    return get(name).binder().setDouble(1, value).execute();
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Execute prepared statement and read all rows.
+     * 
+     * @param name
+     *            statement name
+     * @param values
+     *            values for statement.
+     * @return rows (empty if statement returned no ResultSet)
+     * @throws SQLException
+     */
+    public List<Row> query(String name, Object... values) throws SQLException {
+	lock.lock();
+	try {
+	    PS_Wrapper psWrapper = get(name);
+	    return readRows(psWrapper, psWrapper.execute(values));
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Execute statement of handle and read all rows.
+     */
+    public List<Row> query(StatementHandle handle, Object... values) throws SQLException {
+	lock.lock();
+	try {
+	    PS_Wrapper psWrapper = get(handle);
+	    return readRows(psWrapper, psWrapper.execute(values));
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    private static List<Row> readRows(PS_Wrapper psWrapper, boolean hasResultSet) throws SQLException {
+	ArrayList<Row> rows = new ArrayList<Row>();
+	if (hasResultSet) {
+	    Result result = psWrapper.getResult();
+	    try {
+		while (result.hasMoreElements()) {
+		    ArrayList<Object> next = result.nextElement();
+		    rows.add(new Row(next.toArray(), result.getResultMetadata()));
+		}
+	    } finally {
+		result.close();
+	    }
+	    if (result.getException() != null) {
+		throw result.getException();
+	    }
+	}
+	return rows;
+    }
+
+    /**
+     * Execute statement of handle.
+     * 
+     * @param handle
+     *            statement handle (see TableDef.getSelectHandle() etc.)
+     * @param values
+     *            values for statement
+     * @return true if statement returned ResultSet (use getResult(handle))
+     * @throws SQLException
+     */
+    public boolean execute(StatementHandle handle, Object... values) throws SQLException {
+	lock.lock();
+	try {
+	    return get(handle).execute(values);
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Execute statement (e.g. update) and return update count.
+     */
+    public int executeUpdate(StatementHandle handle, Object... values) throws SQLException {
+	lock.lock();
+	try {
+	    return get(handle).executeUpdate(Collections.singletonList(values));
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    public boolean execute(StatementHandle handle, int value) throws SQLException {
+	lock.lock();
+	try {
+	    return get(handle).binder().setInt(1, value).execute();
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    public boolean execute(StatementHandle handle, long value) throws SQLException {
+	lock.lock();
+	try {
+	    return get(handle).binder().setLong(1, value).execute();
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Get binder of handle statement, caller must hold getLock() while binder
+     * is used.
+     */
+    public StatementBinder getBinder(StatementHandle handle) throws SQLException {
+	lock.lock();
+	try {
+	    return get(handle).binder();
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * @return Result of last execution of handle or null
+     */
+    public Result getResult(StatementHandle handle) throws SQLException {
+	lock.lock();
+	try {
+	    return get(handle).getResult();
+	} finally {
+	    lock.unlock();
+	}
+    }
+
     public boolean execute2(String name) throws SQLException {
-	PS_Wrapper psWrapper = get(name);
-	return psWrapper.execute();
+	lock.lock();
+	try {
+	    PS_Wrapper psWrapper = get(name);
+	    return psWrapper.execute();
+	} finally {
+	    lock.unlock();
+	}
     }
 
     /**
@@ -201,13 +639,16 @@ public class JavaDB_Connection extends JDB_Actions {
      */
     public int count(String table, String condition) throws SQLException {
 	String sql = "select count(*) from " + table + " where " + condition;
-	synchronized (defaultStatement) {
+	lock.lock();
+	try {
 	    defaultStatement.execute(sql);
 	    ResultSet rs1 = defaultStatement.getResultSet();
 	    rs1.next();
 	    int k = rs1.getInt(1);
 	    rs1.close();
 	    return k;
+	} finally {
+	    lock.unlock();
 	}
     }
 
@@ -215,6 +656,147 @@ public class JavaDB_Connection extends JDB_Actions {
 	return count(table, condition) > 0;
     }
 
+    private static volatile Executor defaultAsyncExecutor;
+    private volatile Executor asyncExecutor;
+
+    /**
+     * Executor used by asynchronous methods if no executor was set for
+     * connection. By default virtual threads are used (Java 21+), otherwise a
+     * cached pool of daemon threads.
+     */
+    public static Executor getDefaultAsyncExecutor() {
+	Executor executor = defaultAsyncExecutor;
+	if (executor == null) {
+	    synchronized (JavaDB_Connection.class) {
+		executor = defaultAsyncExecutor;
+		if (executor == null) {
+		    executor = createDefaultExecutor();
+		    defaultAsyncExecutor = executor;
+		}
+	    }
+	}
+	return executor;
+    }
+
+    public static void setDefaultAsyncExecutor(Executor executor) {
+	defaultAsyncExecutor = executor;
+    }
+
+    private static ExecutorService createDefaultExecutor() {
+	try {
+	    return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+	} catch (Exception ex) {
+	    // no virtual threads in this VM
+	}
+	return Executors.newCachedThreadPool(new ThreadFactory() {
+	    private final AtomicInteger count = new AtomicInteger();
+
+	    public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, "JavaDB_Connection-async-" + count.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	    }
+	});
+    }
+
+    public Executor getAsyncExecutor() {
+	Executor executor = asyncExecutor;
+	return executor != null ? executor : getDefaultAsyncExecutor();
+    }
+
+    /**
+     * Set executor for asynchronous methods of this connection.
+     * 
+     * @param executor
+     *            executor or null to use default executor
+     */
+    public void setAsyncExecutor(Executor executor) {
+	this.asyncExecutor = executor;
+    }
+
+    /**
+     * Run task on async executor while holding connection lock. SQLException
+     * completes future exceptionally (wrapped in CompletionException).
+     */
+    private <T> CompletableFuture<T> async(final Callable<T> task) {
+	return CompletableFuture.supplyAsync(new Supplier<T>() {
+	    public T get() {
+		lock.lock();
+		try {
+		    return task.call();
+		} catch (Exception ex) {
+		    throw new CompletionException(ex);
+		} finally {
+		    lock.unlock();
+		}
+	    }
+	}, getAsyncExecutor());
+    }
+
+    /**
+     * Asynchronously execute sql expression.
+     * 
+     * @return future completed with true if execution returned ResultSet.
+     */
+    public CompletableFuture<Boolean> executeAsync(final String sql) {
+	return async(new Callable<Boolean>() {
+	    public Boolean call() throws SQLException {
+		ActionResult<Boolean> result = new ExecuteSQL(sql).execute();
+		if (!result.success) {
+		    throw result.lastError;
+		}
+		return result.result;
+	    }
+	});
+    }
+
+    /**
+     * Asynchronously execute prepared statement.
+     * 
+     * @param name
+     *            statement name
+     * @param values
+     *            values for statement.
+     */
+    public CompletableFuture<Boolean> executeAsync(final String name, final Object... values) {
+	return async(new Callable<Boolean>() {
+	    public Boolean call() throws SQLException {
+		return execute(name, values);
+	    }
+	});
+    }
+
+    /**
+     * Asynchronously execute prepared statement and read all rows. Rows are
+     * read before connection lock is released, so other calls can't
+     * invalidate result.
+     * 
+     * @param name
+     *            statement name
+     * @param values
+     *            values for statement.
+     * @return future completed with rows (empty if statement returned no
+     *         ResultSet)
+     */
+    public CompletableFuture<List<Row>> queryAsync(final String name, final Object... values) {
+	return async(new Callable<List<Row>>() {
+	    public List<Row> call() throws SQLException {
+		return query(name, values);
+	    }
+	});
+    }
+
+    /**
+     * Asynchronous version of count(String, String).
+     */
+    public CompletableFuture<Integer> countAsync(final String table, final String condition) {
+	return async(new Callable<Integer>() {
+	    public Integer call() throws SQLException {
+		return count(table, condition);
+	    }
+	});
+    }
+
     private String url;
 
     /**
@@ -234,6 +816,117 @@ public class JavaDB_Connection extends JDB_Actions {
 	return url;
     }
 
+    public boolean getAutoCommit() throws SQLException {
+	return getConnection().getAutoCommit();
+    }
+
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+	getConnection().setAutoCommit(autoCommit);
+    }
+
+    public void commit() throws SQLException {
+	getConnection().commit();
+    }
+
+    public void rollback() throws SQLException {
+	getConnection().rollback();
+    }
+
+    // guarded by lock
+    private Transaction transaction;
+
+    /**
+     * Start transaction with connection's current isolation level.
+     */
+    public Transaction begin() throws SQLException {
+	return begin(null);
+    }
+
+    /**
+     * Start transaction. Only one transaction can be active on connection.
+     * 
+     * @param isolation
+     *            isolation level or null to keep current level
+     * @return Transaction which must be committed or rolled back (or closed)
+     * @throws SQLException
+     *             if another transaction is active
+     */
+    public Transaction begin(Transaction.Isolation isolation) throws SQLException {
+	lock.lock();
+	try {
+	    if (transaction != null) {
+		throw new SQLException("Transaction already active: " + transaction);
+	    }
+	    transaction = new Transaction(this, isolation);
+	    return transaction;
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Run task in transaction. Transaction is committed if task completes
+     * normally and rolled back otherwise.
+     */
+    public <T> T inTransaction(Transaction.Isolation isolation, ConnectionPool.Task<T> task) throws SQLException {
+	Transaction tx = begin(isolation);
+	try {
+	    T t = task.call(this);
+	    tx.commit();
+	    return t;
+	} finally {
+	    tx.close();
+	}
+    }
+
+    /**
+     * @return active transaction or null
+     */
+    public Transaction getTransaction() {
+	lock.lock();
+	try {
+	    return transaction;
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    void endTransaction(Transaction tx) {
+	lock.lock();
+	try {
+	    if (transaction == tx) {
+		transaction = null;
+	    }
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Check if connection is still usable.
+     * 
+     * @param timeout
+     *            timeout in seconds
+     * @return false if connection is closed or not valid (check getLastError)
+     */
+    public boolean isValid(int timeout) {
+	try {
+	    return getConnection().isValid(timeout);
+	} catch (SQLException ex) {
+	    lastError = ex;
+	    return false;
+	}
+    }
+
+    public boolean isClosed() {
+	try {
+	    return getConnection().isClosed();
+	} catch (SQLException ex) {
+	    lastError = ex;
+	    return true;
+	}
+    }
+
     boolean isExcelConnection() {
 	String url = getURL();
 	if (url.indexOf("Excel") >= 0) {
@@ -263,7 +956,15 @@ public class JavaDB_Connection extends JDB_Actions {
 	return result;
     }
 
+    /**
+     * @return true if table exists (see getCatalog())
+     */
     public boolean hasTable(String name) {
+	try {
+	    return getCatalog().hasTable(name);
+	} catch (SQLException ex) {
+	    lastError = ex;
+	}
 	Result tables = getTables();
 	while (tables.hasMoreElements()) {
 	    ArrayList<Object> next = tables.nextElement();
@@ -295,4 +996,82 @@ public class JavaDB_Connection extends JDB_Actions {
 	ActionResult<Result> execute = new GetResultSet(key).execute();
 	return execute.result;
     }
+
+    /**
+     * Get result of prepared statement and set fetch size.
+     * 
+     * @param key
+     *            statement name
+     * @param fetchSize
+     *            number of rows fetched at once
+     * @return Result or null
+     */
+    public Result getResult(String key, int fetchSize) {
+	Result result = getResult(key);
+	if (result != null) {
+	    result.setFetchSize(fetchSize);
+	}
+	return result;
+    }
+
+    /**
+     * Execute prepared statement and stream its rows. Rows are fetched lazily
+     * (fetchSize rows at once), so tables of any size can be processed in
+     * constant memory. Close stream (or use try-with-resources) if it is not
+     * consumed completely.
+     * 
+     * Note: PostgreSQL driver uses fetch size only if auto-commit is off.
+     * 
+     * @param name
+     *            statement name
+     * @param fetchSize
+     *            number of rows fetched at once
+     * @param values
+     *            values for statement
+     * @return Stream (empty if statement returns no ResultSet)
+     * @throws SQLException
+     */
+    public Stream<Row> stream(String name, int fetchSize, Object... values) throws SQLException {
+	Result result;
+	lock.lock();
+	try {
+	    PS_Wrapper psWrapper = get(name);
+	    psWrapper.setFetchSize(fetchSize);
+	    psWrapper.execute(Arrays.asList(values));
+	    result = psWrapper.getResult();
+	} finally {
+	    lock.unlock();
+	}
+	if (result == null) {
+	    return Stream.empty();
+	}
+	return result.stream();
+    }
+
+    /**
+     * Execute sql expression and stream result. Unlike executeAndGetResult
+     * own Statement is used, so other calls can be made while stream is
+     * consumed.
+     * 
+     * @param sql
+     * @param fetchSize
+     *            number of rows fetched at once
+     * @return Stream (empty if sql returns no ResultSet)
+     * @throws SQLException
+     */
+    public Stream<Row> executeAndStream(String sql, int fetchSize) throws SQLException {
+	Statement statement = getConnection().createStatement();
+	try {
+	    statement.setFetchSize(fetchSize);
+	    if (statement.execute(sql)) {
+		Result result = new Result(statement.getResultSet(), statement);
+		return result.stream();
+	    }
+	} catch (SQLException ex) {
+	    statement.close();
+	    throw ex;
+	}
+	statement.close();
+	return Stream.empty();
+    }
 }
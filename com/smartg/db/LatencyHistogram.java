@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets (HDR style). Every
+ * power of two is divided into 32 sub-buckets, so recorded values are
+ * accurate to about 3%. Values up to 2^40 ns (~18 minutes) are tracked,
+ * larger values go to the last bucket.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = SUB + (MAX_EXPONENT - SUB_BITS + 1) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int bucket(long value) {
+	if (value < SUB) {
+	    return value < 0 ? 0 : (int) value;
+	}
+	int e = 63 - Long.numberOfLeadingZeros(value);
+	if (e > MAX_EXPONENT) {
+	    return BUCKETS - 1;
+	}
+	int m = (int) (value >>> (e - SUB_BITS)) & (SUB - 1);
+	return SUB + (e - SUB_BITS) * SUB + m;
+    }
+
+    /**
+     * @return highest value which falls into bucket
+     */
+    static long bucketValue(int bucket) {
+	if (bucket < SUB) {
+	    return bucket;
+	}
+	int e = (bucket - SUB) / SUB + SUB_BITS;
+	long m = (bucket - SUB) % SUB;
+	long lower = (1L << e) | (m << (e - SUB_BITS));
+	return lower + (1L << (e - SUB_BITS)) - 1;
+    }
+
+    public void record(long value) {
+	counts.incrementAndGet(bucket(value));
+	count.incrementAndGet();
+	sum.addAndGet(value);
+	long m = max.get();
+	while (value > m && !max.compareAndSet(m, value)) {
+	    m = max.get();
+	}
+    }
+
+    public long getCount() {
+	return count.get();
+    }
+
+    public long getMax() {
+	return max.get();
+    }
+
+    public double getMean() {
+	long c = count.get();
+	return c == 0 ? 0 : (double) sum.get() / c;
+    }
+
+    /**
+     * @param percentile
+     *            percentile (0 - 100)
+     * @return value at percentile (upper bound of its bucket)
+     */
+    public long getPercentile(double percentile) {
+	long total = count.get();
+	if (total == 0) {
+	    return 0;
+	}
+	long limit = (long) Math.ceil(total * percentile / 100.0);
+	if (limit < 1) {
+	    limit = 1;
+	}
+	long seen = 0;
+	for (int i = 0; i < BUCKETS; i++) {
+	    seen += counts.get(i);
+	    if (seen >= limit) {
+		return Math.min(bucketValue(i), max.get());
+	    }
+	}
+	return max.get();
+    }
+
+    public void reset() {
+	for (int i = 0; i < BUCKETS; i++) {
+	    counts.set(i, 0);
+	}
+	count.set(0);
+	sum.set(0);
+	max.set(0);
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Virtual TableModel: rows are loaded in blocks on demand (when JTable asks
+ * for them) by background thread, using scrollable cursor. Only window of
+ * recently used blocks is cached. Row count is computed with separate
+ * COUNT(*) query, so result is never materialized completely.
+ * 
+ * setQuery() cancels loads of previous query. All methods except close()
+ * have to be called on event dispatch thread.
+ */
+public class LazyTableModel extends AbstractTableModel {
+
+	private static final long serialVersionUID = -2254627101424735311L;
+
+	public static final int DEFAULT_BLOCK_SIZE = 200;
+	public static final int DEFAULT_MAX_BLOCKS = 20;
+
+	private static final Object LOADING = "...";
+
+	private final JavaDB_Connection connection;
+	private final int blockSize;
+	private final int maxBlocks;
+
+	private final ExecutorService loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "LazyTableModel loader");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final LinkedHashMap<Integer, Object[][]> blocks;
+	private final HashSet<Integer> pending = new HashSet<Integer>();
+
+	private volatile int generation;
+	private volatile int lastRequested;
+
+	private String[] columnNames = new String[0];
+	// header text: "name : type"
+	private String[] columnHeaders = new String[0];
+	private int rowCount;
+
+	// used only by loader thread
+	private PreparedStatement statement;
+	private ResultSet resultSet;
+	private boolean scrollable;
+	private int position;
+
+	public LazyTableModel(JavaDB_Connection connection) {
+		this(connection, DEFAULT_BLOCK_SIZE, DEFAULT_MAX_BLOCKS);
+	}
+
+	/**
+	 * @param blockSize
+	 *            rows per block
+	 * @param maxBlocks
+	 *            max number of cached blocks
+	 */
+	public LazyTableModel(JavaDB_Connection connection, int blockSize, final int maxBlocks) {
+		this.connection = connection;
+		this.blockSize = blockSize;
+		this.maxBlocks = maxBlocks;
+		this.blocks = new LinkedHashMap<Integer, Object[][]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Object[][]> eldest) {
+				return size() > maxBlocks;
+			}
+		};
+	}
+
+	/**
+	 * Show result of query. Query is executed in background, previous query
+	 * and its pending loads are cancelled.
+	 * 
+	 * @param sql
+	 *            select statement
+	 * @param params
+	 *            values of statement parameters
+	 */
+	public void setQuery(final String sql, final Object... params) {
+		final int gen = ++generation;
+		blocks.clear();
+		pending.clear();
+		rowCount = 0;
+		fireTableDataChanged();
+		loader.execute(new Runnable() {
+			public void run() {
+				if (gen == generation) {
+					open(gen, sql, params);
+				}
+			}
+		});
+	}
+
+	public void clear() {
+		generation++;
+		blocks.clear();
+		pending.clear();
+		rowCount = 0;
+		columnNames = new String[0];
+		columnHeaders = new String[0];
+		fireTableStructureChanged();
+		loader.execute(new Runnable() {
+			public void run() {
+				closeResult();
+			}
+		});
+	}
+
+	/**
+	 * Cancel loads and stop loader thread.
+	 */
+	public void close() {
+		generation++;
+		loader.execute(new Runnable() {
+			public void run() {
+				closeResult();
+			}
+		});
+		loader.shutdown();
+	}
+
+	/**
+	 * @return column names (without types), available after query metadata
+	 *         was loaded.
+	 */
+	public String[] getColumnNames() {
+		return columnNames.clone();
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public int getColumnCount() {
+		return columnNames.length;
+	}
+
+	/**
+	 * @return column header (name and type)
+	 */
+	@Override
+	public String getColumnName(int column) {
+		return columnHeaders[column];
+	}
+
+	public Object getValueAt(int row, int column) {
+		Integer block = Integer.valueOf(row / blockSize);
+		Object[][] rows = blocks.get(block);
+		if (rows == null) {
+			request(block.intValue());
+			return LOADING;
+		}
+		int index = row % blockSize;
+		if (index >= rows.length || column >= rows[index].length) {
+			return null;
+		}
+		return rows[index][column];
+	}
+
+	private void request(final int block) {
+		lastRequested = block;
+		if (!pending.add(Integer.valueOf(block))) {
+			return;
+		}
+		final int gen = generation;
+		loader.execute(new Runnable() {
+			public void run() {
+				// skip stale requests (query changed or user scrolled away)
+				if (gen != generation || Math.abs(block - lastRequested) > maxBlocks / 2) {
+					dropRequest(gen, block);
+					return;
+				}
+				final Object[][] rows = readBlock(gen, block);
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						if (gen == generation) {
+							pending.remove(Integer.valueOf(block));
+							if (rows != null) {
+								blocks.put(Integer.valueOf(block), rows);
+								int first = block * blockSize;
+								int last = Math.min(rowCount, first + blockSize) - 1;
+								if (last >= first) {
+									fireTableRowsUpdated(first, last);
+								}
+							}
+						}
+					}
+				});
+			}
+		});
+	}
+
+	private void dropRequest(final int gen, final int block) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if (gen == generation) {
+					pending.remove(Integer.valueOf(block));
+				}
+			}
+		});
+	}
+
+	private void open(final int gen, String sql, Object[] params) {
+		closeResult();
+		final String[] names;
+		final String[] headers;
+		final int count;
+		connection.lock.lock();
+		try {
+			scrollable = connection.getDatabaseMetaData().supportsResultSetType(ResultSet.TYPE_SCROLL_INSENSITIVE);
+			statement = connection.getConnection().prepareStatement(sql,
+					scrollable ? ResultSet.TYPE_SCROLL_INSENSITIVE : ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			statement.setFetchSize(blockSize);
+			for (int i = 0; i < params.length; i++) {
+				statement.setObject(i + 1, params[i]);
+			}
+			resultSet = statement.executeQuery();
+			position = 0;
+			ResultSetMetaData md = resultSet.getMetaData();
+			names = new String[md.getColumnCount()];
+			headers = new String[names.length];
+			for (int i = 0; i < names.length; i++) {
+				names[i] = md.getColumnLabel(i + 1);
+				headers[i] = names[i] + " : " + md.getColumnTypeName(i + 1);
+			}
+			count = count(sql, params);
+		} catch (SQLException ex) {
+			Logger.getLogger(getClass().getName()).log(Level.WARNING, sql, ex);
+			closeResult();
+			return;
+		} finally {
+			connection.lock.unlock();
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if (gen == generation) {
+					columnNames = names;
+					columnHeaders = headers;
+					rowCount = count;
+					fireTableStructureChanged();
+				}
+			}
+		});
+	}
+
+	private int count(String sql, Object[] params) throws SQLException {
+		PreparedStatement ps = connection.getConnection().prepareStatement("select COUNT(*) from (" + sql + ") lazy_count");
+		try {
+			for (int i = 0; i < params.length; i++) {
+				ps.setObject(i + 1, params[i]);
+			}
+			ResultSet rs = ps.executeQuery();
+			return rs.next() ? rs.getInt(1) : 0;
+		} finally {
+			ps.close();
+		}
+	}
+
+	/**
+	 * @return rows of block, null if query changed or block can't be read
+	 */
+	private Object[][] readBlock(int gen, int block) {
+		if (resultSet == null) {
+			return new Object[0][];
+		}
+		int first = block * blockSize;
+		connection.lock.lock();
+		try {
+			if (resultSet.isClosed()) {
+				// closed by failed read, execute again
+				resultSet = statement.executeQuery();
+				position = 0;
+			}
+			int columns = resultSet.getMetaData().getColumnCount();
+			if (scrollable) {
+				if (first == 0) {
+					resultSet.beforeFirst();
+				} else if (!resultSet.absolute(first)) {
+					return new Object[0][];
+				}
+			} else if (first < position) {
+				// forward only cursor can't go back, execute again
+				resultSet.close();
+				resultSet = statement.executeQuery();
+				position = 0;
+			}
+			if (!scrollable) {
+				while (position < first && resultSet.next()) {
+					position++;
+				}
+			}
+			Object[][] rows = new Object[blockSize][];
+			int n = 0;
+			while (n < blockSize && gen == generation && resultSet.next()) {
+				Object[] row = new Object[columns];
+				for (int i = 0; i < columns; i++) {
+					row[i] = resultSet.getObject(i + 1);
+				}
+				rows[n++] = row;
+			}
+			position = first + n;
+			if (gen != generation) {
+				return null;
+			}
+			if (n < blockSize) {
+				Object[][] tmp = new Object[n][];
+				System.arraycopy(rows, 0, tmp, 0, n);
+				rows = tmp;
+			}
+			return rows;
+		} catch (SQLException ex) {
+			Logger.getLogger(getClass().getName()).log(Level.WARNING, ex.getMessage(), ex);
+			// failed block is not cached, next getValueAt reads it again;
+			// cursor position is unknown, so forward only cursor is executed
+			// again
+			position = Integer.MAX_VALUE;
+			return null;
+		} finally {
+			connection.lock.unlock();
+		}
+	}
+
+	private void closeResult() {
+		if (statement != null) {
+			try {
+				statement.close();
+			} catch (SQLException ex) {
+				// ignore
+			}
+		}
+		statement = null;
+		resultSet = null;
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable copy of StatementStats. Times are in microseconds.
+ */
+public class MetricsSnapshot {
+
+    public final String name;
+    public final long executions;
+    public final long errors;
+    public final long rows;
+    public final long bindTime;
+    public final long executeTime;
+    public final long fetchTime;
+    public final long p50;
+    public final long p90;
+    public final long p99;
+    public final long max;
+
+    MetricsSnapshot(StatementStats stats) {
+	name = stats.getName();
+	executions = stats.getExecutions();
+	errors = stats.getErrors();
+	rows = stats.getRows();
+	bindTime = stats.getBindTime(TimeUnit.MICROSECONDS);
+	executeTime = stats.getExecuteTime(TimeUnit.MICROSECONDS);
+	fetchTime = stats.getFetchTime(TimeUnit.MICROSECONDS);
+	LatencyHistogram latency = stats.getLatency();
+	p50 = latency.getPercentile(50) / 1000;
+	p90 = latency.getPercentile(90) / 1000;
+	p99 = latency.getPercentile(99) / 1000;
+	max = latency.getMax() / 1000;
+    }
+
+    /**
+     * @return total time (bind + execute + fetch) in microseconds
+     */
+    public long getTotalTime() {
+	return bindTime + executeTime + fetchTime;
+    }
+
+    @Override
+    public String toString() {
+	return name + ": executions=" + executions + ", errors=" + errors + ", rows=" + rows + ", bind=" + bindTime + "us, execute=" + executeTime
+		+ "us, fetch=" + fetchTime + "us, p50=" + p50 + "us, p90=" + p90 + "us, p99=" + p99 + "us, max=" + max + "us";
+    }
+}
@@ -30,9 +30,12 @@
 
 package com.smartg.db;
 
+import java.sql.ParameterMetaData;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLDataException;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
@@ -46,9 +49,301 @@ class PS_Wrapper {
     boolean valid;
     boolean hasResultSet;
 
+    /**
+     * Binding plan: java.sql.Types of parameters. Values are bound with
+     * typed setters (setInt, setLong, setString...) according to this plan.
+     */
+    private int[] plan;
+    private StatementBinder binder;
+
+    /**
+     * Statement and table name for metrics.
+     */
+    String name;
+    String table;
+    private StatementStats stats;
+
+    /**
+     * Handle which last used this statement (see JDB_Actions.get(handle)).
+     */
+    StatementHandle handle;
+    boolean returnGeneratedKeys;
+
+    /**
+     * Open Results of this statement. Statement which was retired (evicted
+     * from StatementCache) while a Result is open is closed when the last
+     * Result is closed, so readers don't lose their ResultSet.
+     */
+    private int openResults;
+    private volatile boolean retired;
+
     PS_Wrapper(PreparedStatement ps, String sql) {
+	this(ps, sql, null);
+    }
+
+    /**
+     * @param types
+     *            parameter types (java.sql.Types), if null types are read
+     *            from ParameterMetaData on first use.
+     */
+    PS_Wrapper(PreparedStatement ps, String sql, int[] types) {
 	this.ps = ps;
 	this.sql = sql;
+	this.plan = types;
+    }
+
+    /**
+     * @return counters of this statement or null if metrics are disabled.
+     */
+    private StatementStats stats() {
+	StatementMetrics metrics = StatementMetrics.getDefault();
+	if (name == null || !metrics.isEnabled()) {
+	    return null;
+	}
+	if (stats == null) {
+	    stats = metrics.forStatement(name, table);
+	}
+	return stats;
+    }
+
+    private boolean run(StatementStats stats, long bindStart) throws SQLException {
+	if (stats == null) {
+	    return ps.execute();
+	}
+	long start = System.nanoTime();
+	try {
+	    boolean b = ps.execute();
+	    stats.recordExecute(start - bindStart, System.nanoTime() - start);
+	    return b;
+	} catch (SQLException ex) {
+	    stats.recordError();
+	    throw ex;
+	}
+    }
+
+    private int runUpdate(StatementStats stats, long bindStart) throws SQLException {
+	if (stats == null) {
+	    return ps.executeUpdate();
+	}
+	long start = System.nanoTime();
+	try {
+	    int count = ps.executeUpdate();
+	    stats.recordExecute(start - bindStart, System.nanoTime() - start);
+	    return count;
+	} catch (SQLException ex) {
+	    stats.recordError();
+	    throw ex;
+	}
+    }
+
+    private int[] runBatch(StatementStats stats) throws SQLException {
+	if (stats == null) {
+	    return ps.executeBatch();
+	}
+	long start = System.nanoTime();
+	try {
+	    int[] counts = ps.executeBatch();
+	    stats.recordExecute(0, System.nanoTime() - start);
+	    return counts;
+	} catch (SQLException ex) {
+	    stats.recordError();
+	    throw ex;
+	}
+    }
+
+    private int[] plan() {
+	if (plan == null) {
+	    int[] types;
+	    try {
+		ParameterMetaData pmd = ps.getParameterMetaData();
+		types = new int[pmd.getParameterCount()];
+		for (int i = 0; i < types.length; i++) {
+		    types[i] = pmd.getParameterType(i + 1);
+		}
+	    } catch (SQLException ex) {
+		// driver doesn't provide parameter types, use setObject
+		types = new int[0];
+	    }
+	    plan = types;
+	}
+	return plan;
+    }
+
+    /**
+     * Bind value with setter matching parameter type, setObject is used for
+     * unknown types or values of unexpected class.
+     */
+    private void bindValue(int index, Object o) throws SQLException {
+	int[] plan = plan();
+	int type = index <= plan.length ? plan[index - 1] : Types.JAVA_OBJECT;
+	if (o == null) {
+	    if (type == Types.JAVA_OBJECT || type == Types.OTHER) {
+		ps.setObject(index, null);
+	    } else {
+		ps.setNull(index, type);
+	    }
+	    return;
+	}
+	switch (type) {
+	case Types.INTEGER:
+	    if (o instanceof Integer || o instanceof Short || o instanceof Byte) {
+		ps.setInt(index, ((Number) o).intValue());
+		return;
+	    }
+	    break;
+	case Types.SMALLINT:
+	case Types.TINYINT:
+	    if (o instanceof Short || o instanceof Byte) {
+		ps.setShort(index, ((Number) o).shortValue());
+		return;
+	    }
+	    break;
+	case Types.BIGINT:
+	    if (o instanceof Long || o instanceof Integer || o instanceof Short || o instanceof Byte) {
+		ps.setLong(index, ((Number) o).longValue());
+		return;
+	    }
+	    break;
+	case Types.DOUBLE:
+	case Types.FLOAT:
+	    if (o instanceof Double || o instanceof Float) {
+		ps.setDouble(index, ((Number) o).doubleValue());
+		return;
+	    }
+	    break;
+	case Types.REAL:
+	    if (o instanceof Float) {
+		ps.setFloat(index, ((Float) o).floatValue());
+		return;
+	    }
+	    break;
+	case Types.CHAR:
+	case Types.VARCHAR:
+	case Types.LONGVARCHAR:
+	case Types.CLOB:
+	    if (o instanceof String) {
+		ps.setString(index, (String) o);
+		return;
+	    }
+	    break;
+	case Types.BINARY:
+	case Types.VARBINARY:
+	case Types.LONGVARBINARY:
+	case Types.BLOB:
+	    if (o instanceof byte[]) {
+		ps.setBytes(index, (byte[]) o);
+		return;
+	    }
+	    break;
+	case Types.BOOLEAN:
+	    if (o instanceof Boolean) {
+		ps.setBoolean(index, ((Boolean) o).booleanValue());
+		return;
+	    }
+	    break;
+	default:
+	    break;
+	}
+	ps.setObject(index, o);
+    }
+
+    /**
+     * @return binder for primitive values (reused, not thread safe)
+     */
+    StatementBinder binder() {
+	if (binder == null) {
+	    binder = new StatementBinder(this);
+	}
+	return binder;
+    }
+
+    void setInt(int index, int value) throws SQLException {
+	ps.setInt(index, value);
+    }
+
+    void setLong(int index, long value) throws SQLException {
+	ps.setLong(index, value);
+    }
+
+    void setDouble(int index, double value) throws SQLException {
+	ps.setDouble(index, value);
+    }
+
+    void setBoolean(int index, boolean value) throws SQLException {
+	ps.setBoolean(index, value);
+    }
+
+    void setString(int index, String value) throws SQLException {
+	if (value == null) {
+	    setNull(index);
+	} else {
+	    ps.setString(index, value);
+	}
+    }
+
+    void setBytes(int index, byte[] value) throws SQLException {
+	if (value == null) {
+	    setNull(index);
+	} else {
+	    ps.setBytes(index, value);
+	}
+    }
+
+    void setNull(int index) throws SQLException {
+	bindValue(index, null);
+    }
+
+    void setValue(int index, Object value) throws SQLException {
+	bindValue(index, value);
+    }
+
+    /**
+     * Close statement now if no Result is open, otherwise when last Result is
+     * closed.
+     */
+    void retire() {
+	boolean close;
+	synchronized (this) {
+	    retired = true;
+	    close = openResults == 0;
+	}
+	if (close) {
+	    close();
+	}
+    }
+
+    /**
+     * @return true if statement is not closed and not retired
+     */
+    boolean isOpen() {
+	return ps != null && !retired;
+    }
+
+    synchronized void pin() {
+	openResults++;
+    }
+
+    /**
+     * Called once for each pinned Result, when it is closed or replaced by
+     * next execution.
+     */
+    void unpin() {
+	boolean close;
+	synchronized (this) {
+	    openResults--;
+	    close = retired && openResults == 0;
+	}
+	if (close) {
+	    close();
+	}
+    }
+
+    private void resetResult() {
+	Result r = result;
+	result = null;
+	if (r != null) {
+	    r.release();
+	}
     }
 
     void close() {
@@ -59,14 +354,26 @@ class PS_Wrapper {
 		// ignore
 	    }
 	}
-	result = null;
+	resetResult();
 	hasResultSet = false;
 	valid = false;
 	ps = null;
     }
 
     boolean execute(Object[] values) throws SQLException {
-	return execute(Arrays.asList(values));
+	resetResult();
+	valid = false;
+	if (ps != null && !ps.isClosed()) {
+	    StatementStats stats = stats();
+	    long bindStart = stats != null ? System.nanoTime() : 0;
+	    for (int i = 0; i < values.length; i++) {
+		bindLogged(i + 1, values[i]);
+	    }
+	    hasResultSet = run(stats, bindStart);
+	    valid = true;
+	    return hasResultSet;
+	}
+	return false;
     }
 
     boolean execute(Object[] values, Integer[] indexes) throws SQLException {
@@ -74,44 +381,157 @@ class PS_Wrapper {
     }
 
     boolean execute(List<Object> values) throws SQLException {
-	result = null;
+	resetResult();
 	valid = false;
 	if (ps != null && !ps.isClosed()) {
+	    StatementStats stats = stats();
+	    long bindStart = stats != null ? System.nanoTime() : 0;
 	    int k = 1;
 	    for (Object o : values) {
-		try {
-		    ps.setObject(k++, o);
-		} catch (SQLDataException e) {
-		    Logger.getLogger(getClass()).log(Level.SEVERE, e.getMessage() + " " + o);
-		}
+		bindLogged(k++, o);
 	    }
-	    hasResultSet = ps.execute();
+	    hasResultSet = run(stats, bindStart);
 	    valid = true;
 	    return hasResultSet;
 	}
 	return false;
     }
 
+    private void bindLogged(int index, Object o) throws SQLException {
+	try {
+	    bindValue(index, o);
+	} catch (SQLDataException e) {
+	    Logger.getLogger(getClass()).log(Level.SEVERE, e.getMessage() + " " + o);
+	}
+    }
+
+    /**
+     * Bind values starting with parameter firstIndex.
+     * 
+     * @return index of next unbound parameter
+     */
+    int bind(int firstIndex, Object[] values) throws SQLException {
+	int k = firstIndex;
+	for (Object o : values) {
+	    try {
+		bindValue(k++, o);
+	    } catch (SQLDataException e) {
+		Logger.getLogger(getClass()).log(Level.SEVERE, e.getMessage() + " " + o);
+	    }
+	}
+	return k;
+    }
+
+    void addBatch(Object[] values) throws SQLException {
+	checkOpen();
+	bind(1, values);
+	ps.addBatch();
+    }
+
+    int[] executeBatch() throws SQLException {
+	resetResult();
+	valid = false;
+	hasResultSet = false;
+	checkOpen();
+	return runBatch(stats());
+    }
+
+    void clearBatch() throws SQLException {
+	if (ps != null && !ps.isClosed()) {
+	    ps.clearBatch();
+	}
+    }
+
+    /**
+     * Bind all rows to one (multi-row) statement and execute it.
+     * 
+     * @return update count
+     */
+    int executeUpdate(List<Object[]> rows) throws SQLException {
+	resetResult();
+	valid = false;
+	hasResultSet = false;
+	checkOpen();
+	StatementStats stats = stats();
+	long bindStart = stats != null ? System.nanoTime() : 0;
+	int k = 1;
+	for (Object[] row : rows) {
+	    k = bind(k, row);
+	}
+	return runUpdate(stats, bindStart);
+    }
+
+    /**
+     * Read generated keys of last execution (first column as long).
+     * 
+     * @param keys
+     *            keys are stored from offset, keys which don't fit are only
+     *            counted
+     * @return number of generated keys
+     */
+    int readGeneratedKeys(long[] keys, int offset) throws SQLException {
+	checkOpen();
+	ResultSet rs = ps.getGeneratedKeys();
+	if (rs == null) {
+	    return 0;
+	}
+	try {
+	    int n = 0;
+	    while (rs.next()) {
+		if (offset + n < keys.length) {
+		    keys[offset + n] = rs.getLong(1);
+		}
+		n++;
+	    }
+	    return n;
+	} finally {
+	    rs.close();
+	}
+    }
+
+    void setFetchSize(int rows) throws SQLException {
+	checkOpen();
+	ps.setFetchSize(rows);
+    }
+
+    private void checkOpen() throws SQLException {
+	if (ps == null || ps.isClosed()) {
+	    throw new SQLException("Statement is closed: " + sql);
+	}
+    }
+
     boolean execute(List<Object> values, List<Integer> indexes) throws SQLException {
-	result = null;
+	resetResult();
 	valid = false;
 	if (ps != null && !ps.isClosed()) {
+	    StatementStats stats = stats();
+	    long bindStart = stats != null ? System.nanoTime() : 0;
 	    int k = 0;
 	    for (Object o : values) {
-		ps.setObject(indexes.get(k++), o);
+		bindValue(indexes.get(k++), o);
 	    }
-	    hasResultSet = ps.execute();
+	    hasResultSet = run(stats, bindStart);
 	    valid = true;
 	    return hasResultSet;
 	}
 	return false;
     }
 
+    int executeUpdate() throws SQLException {
+	resetResult();
+	valid = false;
+	hasResultSet = false;
+	checkOpen();
+	StatementStats stats = stats();
+	return runUpdate(stats, stats != null ? System.nanoTime() : 0);
+    }
+
     boolean execute() throws SQLException {
-	result = null;
+	resetResult();
 	valid = false;
 	if (ps != null && !ps.isClosed()) {
-	    hasResultSet = ps.execute();
+	    StatementStats stats = stats();
+	    hasResultSet = run(stats, stats != null ? System.nanoTime() : 0);
 	    valid = true;
 	    return hasResultSet;
 	}
@@ -120,7 +540,7 @@ class PS_Wrapper {
 
     Result getResult() throws SQLException {
 	if (result == null && valid && hasResultSet && ps != null && !ps.isClosed()) {
-	    result = new Result(ps.getResultSet());
+	    result = new Result(ps.getResultSet(), stats(), this);
 	}
 	return result;
     }
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+/**
+ * Position of keyset (seek) pagination: table, key column, page size and key
+ * of last row of previous page. Next page starts with first row whose key is
+ * greater than last key, so cost of page doesn't depend on its depth.
+ */
+public final class PageToken {
+
+    private final String tableName;
+    private final int keyColumn;
+    private final int pageSize;
+    private final Object lastKey;
+
+    PageToken(String tableName, int keyColumn, int pageSize, Object lastKey) {
+	this.tableName = tableName;
+	this.keyColumn = keyColumn;
+	this.pageSize = pageSize;
+	this.lastKey = lastKey;
+    }
+
+    public String getTableName() {
+	return tableName;
+    }
+
+    public int getKeyColumn() {
+	return keyColumn;
+    }
+
+    public int getPageSize() {
+	return pageSize;
+    }
+
+    public Object getLastKey() {
+	return lastKey;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+	if (!(obj instanceof PageToken)) {
+	    return false;
+	}
+	PageToken t = (PageToken) obj;
+	return tableName.equals(t.tableName) && keyColumn == t.keyColumn && pageSize == t.pageSize && lastKey.equals(t.lastKey);
+    }
+
+    @Override
+    public int hashCode() {
+	return (tableName.hashCode() * 31 + keyColumn) * 31 + lastKey.hashCode();
+    }
+
+    @Override
+    public String toString() {
+	return "PageToken[" + tableName + ", column=" + keyColumn + ", size=" + pageSize + ", after=" + lastKey + "]";
+    }
+}
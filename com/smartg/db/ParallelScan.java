@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Parallel scan of table split into key ranges. Key column has to be
+ * integer column (SMALLINT, INTEGER, BIGINT or their _ID variants), ideally
+ * indexed or identity column. Each range is read on its own pooled
+ * connection.
+ * 
+ * Split points are computed either evenly between MIN and MAX of key (good
+ * for identity columns) or from quantiles of key values (for skewed keys).
+ * Statements are shared by all scans of the same table and key column.
+ * 
+ * Rows with NULL key are not scanned.
+ */
+public class ParallelScan {
+
+    public static enum Split {
+	/**
+	 * Equal key ranges between MIN and MAX.
+	 */
+	MIN_MAX,
+	/**
+	 * Ranges with (approximately) equal number of rows. Split points are
+	 * read in one pass over ordered keys up to the last split point, all
+	 * these keys are sent to client (in batches of fetch size). Cost grows
+	 * with table size, about one full index scan, and is paid on every
+	 * getBounds(), forEach() or stream(). For large tables with evenly
+	 * distributed keys prefer MIN_MAX.
+	 */
+	QUANTILES
+    }
+
+    /**
+     * Consumer of rows of one partition. Partitions are processed in
+     * parallel, rows of one partition sequentially.
+     */
+    public interface PartitionConsumer {
+	void accept(int partition, Row row) throws SQLException;
+    }
+
+    private final ConnectionPool pool;
+    private final TableDef tableDef;
+    private final String keyColumn;
+    private final int partitions;
+
+    private final TableDef.ScanHandles handles;
+
+    private Split split = Split.MIN_MAX;
+    private int fetchSize = 1000;
+    private ForkJoinPool forkJoinPool = ForkJoinPool.commonPool();
+
+    /**
+     * @param pool
+     *            connection pool, one connection is used per partition
+     * @param tableDef
+     *            table
+     * @param keyColumn
+     *            index of integer key column
+     * @param partitions
+     *            number of key ranges
+     */
+    public ParallelScan(ConnectionPool pool, TableDef tableDef, int keyColumn, int partitions) {
+	if (partitions <= 0) {
+	    throw new IllegalArgumentException("partitions: " + partitions);
+	}
+	Column c = tableDef.getColumn(keyColumn);
+	switch (c.getSqlType()) {
+	case Types.SMALLINT:
+	case Types.INTEGER:
+	case Types.BIGINT:
+	    break;
+	default:
+	    throw new IllegalArgumentException("Key column has to be integer column: " + c.getName());
+	}
+	this.pool = pool;
+	this.tableDef = tableDef;
+	this.keyColumn = c.getName();
+	this.partitions = partitions;
+	this.handles = tableDef.getScanHandles(keyColumn);
+    }
+
+    public void setSplit(Split split) {
+	this.split = split;
+    }
+
+    public void setFetchSize(int fetchSize) {
+	this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Pool used by forEach (default common pool). Partition scans wait for
+     * pooled connection and database as ManagedBlocker, so pool may add
+     * threads meanwhile.
+     */
+    public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+	this.forkJoinPool = forkJoinPool;
+    }
+
+    /**
+     * Compute key ranges. Range i is [bounds[i], bounds[i + 1]), last range
+     * includes its upper bound.
+     * 
+     * @return range bounds (empty array if table is empty)
+     */
+    public long[] getBounds() throws SQLException {
+	JavaDB_Connection jdbc = pool.borrow();
+	try {
+	    List<Row> minMax = jdbc.query(handles.minMax);
+	    if (minMax.isEmpty() || minMax.get(0).get(0) == null) {
+		return new long[0];
+	    }
+	    long min = ((Number) minMax.get(0).get(0)).longValue();
+	    long max = ((Number) minMax.get(0).get(1)).longValue();
+	    long[] bounds = split == Split.QUANTILES ? quantiles(jdbc, min, max) : evenBounds(min, max);
+	    return distinct(bounds);
+	} finally {
+	    pool.release(jdbc);
+	}
+    }
+
+    private long[] evenBounds(long min, long max) {
+	long[] bounds = new long[partitions + 1];
+	double step = ((double) max - min) / partitions;
+	for (int i = 0; i < partitions; i++) {
+	    bounds[i] = min + (long) (step * i);
+	}
+	bounds[partitions] = max;
+	return bounds;
+    }
+
+    private long[] quantiles(JavaDB_Connection jdbc, long min, long max) throws SQLException {
+	List<Row> count = jdbc.query(handles.count);
+	long rows = ((Number) count.get(0).get(0)).longValue();
+	long[] bounds = new long[partitions + 1];
+	Arrays.fill(bounds, max);
+	bounds[0] = min;
+	// split point i is key of row (rows * i / partitions) in key order
+	jdbc.lock.lock();
+	try {
+	    PS_Wrapper ps = jdbc.get(handles.orderedKeys);
+	    ps.setFetchSize(fetchSize);
+	    ps.execute();
+	    Result result = ps.getResult();
+	    try {
+		int i = 1;
+		long n = 0;
+		while (i < partitions && result.moveNext()) {
+		    while (i < partitions && n == rows * i / partitions) {
+			bounds[i++] = result.getLong(0);
+		    }
+		    n++;
+		}
+		if (result.getException() != null) {
+		    throw result.getException();
+		}
+	    } finally {
+		result.close();
+	    }
+	} finally {
+	    jdbc.lock.unlock();
+	}
+	return bounds;
+    }
+
+    private static long[] distinct(long[] bounds) {
+	int k = 1;
+	for (int i = 1; i < bounds.length; i++) {
+	    if (bounds[i] > bounds[k - 1]) {
+		bounds[k++] = bounds[i];
+	    }
+	}
+	if (k == 1) {
+	    // single key value
+	    return new long[] { bounds[0], bounds[0] };
+	}
+	long[] res = new long[k];
+	System.arraycopy(bounds, 0, res, 0, k);
+	return res;
+    }
+
+    /**
+     * Scan all partitions in parallel (fork-join) and wait until done.
+     * 
+     * @throws SQLException
+     *             first error of partition scans
+     */
+    public void forEach(final PartitionConsumer consumer) throws SQLException {
+	final long[] bounds = getBounds();
+	final int count = bounds.length - 1;
+	if (count <= 0) {
+	    return;
+	}
+	final SQLException[] errors = new SQLException[count];
+	forkJoinPool.invoke(new RecursiveAction() {
+	    private static final long serialVersionUID = 1L;
+
+	    @Override
+	    protected void compute() {
+		ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+		for (int i = 0; i < count; i++) {
+		    final int partition = i;
+		    tasks.add(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+			    try {
+				ForkJoinPool.managedBlock(new PartitionScan(partition, bounds, consumer, errors));
+			    } catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				errors[partition] = new SQLException(ex);
+			    }
+			}
+		    });
+		}
+		invokeAll(tasks);
+	    }
+	});
+	for (SQLException ex : errors) {
+	    if (ex != null) {
+		throw ex;
+	    }
+	}
+    }
+
+    /**
+     * Scan of one partition. Run as ManagedBlocker, since it blocks in
+     * pool.borrow() and while rows are fetched.
+     */
+    private class PartitionScan implements ForkJoinPool.ManagedBlocker {
+	private final int partition;
+	private final long[] bounds;
+	private final PartitionConsumer consumer;
+	private final SQLException[] errors;
+	private boolean done;
+
+	PartitionScan(int partition, long[] bounds, PartitionConsumer consumer, SQLException[] errors) {
+	    this.partition = partition;
+	    this.bounds = bounds;
+	    this.consumer = consumer;
+	    this.errors = errors;
+	}
+
+	public boolean block() {
+	    try {
+		scan(partition, bounds, consumer);
+	    } catch (SQLException ex) {
+		errors[partition] = ex;
+	    } finally {
+		done = true;
+	    }
+	    return true;
+	}
+
+	public boolean isReleasable() {
+	    return done;
+	}
+    }
+
+    private void scan(int partition, long[] bounds, PartitionConsumer consumer) throws SQLException {
+	JavaDB_Connection jdbc = pool.borrow();
+	try {
+	    Result result = open(jdbc, partition, bounds);
+	    try {
+		while (result.hasMoreElements()) {
+		    consumer.accept(partition, new Row(result.nextElement().toArray(), result.getResultMetadata()));
+		}
+		if (result.getException() != null) {
+		    throw result.getException();
+		}
+	    } finally {
+		result.close();
+	    }
+	} finally {
+	    pool.release(jdbc);
+	}
+    }
+
+    private Result open(JavaDB_Connection jdbc, int partition, long[] bounds) throws SQLException {
+	StatementHandle handle = partition == bounds.length - 2 ? handles.lastRange : handles.range;
+	jdbc.lock.lock();
+	try {
+	    PS_Wrapper ps = jdbc.get(handle);
+	    ps.setFetchSize(fetchSize);
+	    ps.execute(new Object[] { Long.valueOf(bounds[partition]), Long.valueOf(bounds[partition + 1]) });
+	    return ps.getResult();
+	} finally {
+	    jdbc.lock.unlock();
+	}
+    }
+
+    /**
+     * Parallel stream of all rows. Partitions are opened lazily, each on
+     * its own pooled connection which is released when partition is
+     * consumed. Close stream if it is not consumed completely.
+     */
+    public Stream<Row> stream() throws SQLException {
+	final long[] bounds = getBounds();
+	return IntStream.range(0, Math.max(0, bounds.length - 1)).parallel().boxed().flatMap(new Function<Integer, Stream<Row>>() {
+	    public Stream<Row> apply(Integer partition) {
+		return partitionStream(partition.intValue(), bounds);
+	    }
+	});
+    }
+
+    private Stream<Row> partitionStream(int partition, long[] bounds) {
+	final JavaDB_Connection jdbc;
+	try {
+	    jdbc = pool.borrow();
+	} catch (SQLException ex) {
+	    throw new IllegalStateException(ex);
+	}
+	try {
+	    Result result = open(jdbc, partition, bounds);
+	    return result.stream().onClose(new Runnable() {
+		public void run() {
+		    pool.release(jdbc);
+		}
+	    });
+	} catch (SQLException | RuntimeException ex) {
+	    pool.release(jdbc);
+	    throw new IllegalStateException(ex);
+	}
+    }
+
+    public int getPartitions() {
+	return partitions;
+    }
+}
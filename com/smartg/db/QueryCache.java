@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of query results keyed by statement name and bound values. Entries
+ * are evicted in LRU order when entry count or (estimated) memory limit is
+ * exceeded, and expire after time to live.
+ * 
+ * Every table has a generation counter, invalidate(table) increments it and
+ * removes cached results of the table. Results which were read before
+ * invalidation are not stored.
+ */
+public class QueryCache {
+
+    private static final class Key {
+	final String statement;
+	final Object[] values;
+	final int hash;
+
+	Key(String statement, Object[] values) {
+	    this.statement = statement;
+	    this.values = values;
+	    this.hash = 31 * statement.hashCode() + Arrays.deepHashCode(values);
+	}
+
+	@Override
+	public int hashCode() {
+	    return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (!(obj instanceof Key)) {
+		return false;
+	    }
+	    Key k = (Key) obj;
+	    return hash == k.hash && statement.equals(k.statement) && Arrays.deepEquals(values, k.values);
+	}
+    }
+
+    private static final class Entry {
+	final String table;
+	final List<Row> rows;
+	final long expires;
+	final long size;
+
+	Entry(String table, List<Row> rows, long expires, long size) {
+	    this.table = table;
+	    this.rows = rows;
+	    this.expires = expires;
+	    this.size = size;
+	}
+    }
+
+    private final LinkedHashMap<Key, Entry> map = new LinkedHashMap<Key, Entry>(64, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ConcurrentHashMap<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long timeToLive;
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param maxEntries
+     *            max number of cached results
+     * @param maxBytes
+     *            max (estimated) memory used by cached rows
+     * @param timeToLive
+     *            time to live in milliseconds (0 - no expiration)
+     */
+    public QueryCache(int maxEntries, long maxBytes, long timeToLive) {
+	this.maxEntries = maxEntries;
+	this.maxBytes = maxBytes;
+	this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @return cached rows or null
+     */
+    List<Row> get(String statement, Object[] values) {
+	Key key = new Key(statement, values);
+	lock.lock();
+	try {
+	    Entry e = map.get(key);
+	    if (e != null) {
+		if (e.expires == 0 || e.expires > System.currentTimeMillis()) {
+		    hits.incrementAndGet();
+		    return e.rows;
+		}
+		remove(key, e);
+	    }
+	} finally {
+	    lock.unlock();
+	}
+	misses.incrementAndGet();
+	return null;
+    }
+
+    /**
+     * Store rows read by statement.
+     * 
+     * @param generation
+     *            generation of table before statement was executed
+     */
+    void put(String table, long generation, String statement, Object[] values, List<Row> rows) {
+	long size = estimateSize(rows);
+	if (size > maxBytes) {
+	    return;
+	}
+	long expires = timeToLive > 0 ? System.currentTimeMillis() + timeToLive : 0;
+	Key key = new Key(statement, values.clone());
+	Entry entry = new Entry(table, Collections.unmodifiableList(rows), expires, size);
+	lock.lock();
+	try {
+	    if (getGeneration(table) != generation) {
+		// table was modified while statement was executed
+		return;
+	    }
+	    Entry old = map.put(key, entry);
+	    if (old != null) {
+		bytes -= old.size;
+	    }
+	    bytes += size;
+	    Iterator<Map.Entry<Key, Entry>> it = map.entrySet().iterator();
+	    while ((map.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+		Entry e = it.next().getValue();
+		it.remove();
+		bytes -= e.size;
+		evictions.incrementAndGet();
+	    }
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    private void remove(Key key, Entry e) {
+	map.remove(key);
+	bytes -= e.size;
+    }
+
+    long getGeneration(String table) {
+	AtomicLong g = generations.get(table);
+	return g != null ? g.get() : 0;
+    }
+
+    /**
+     * Remove all cached results of table.
+     */
+    public void invalidate(String table) {
+	AtomicLong g = generations.get(table);
+	if (g == null) {
+	    generations.putIfAbsent(table, new AtomicLong());
+	    g = generations.get(table);
+	}
+	lock.lock();
+	try {
+	    g.incrementAndGet();
+	    Iterator<Entry> it = map.values().iterator();
+	    while (it.hasNext()) {
+		Entry e = it.next();
+		if (e.table.equals(table)) {
+		    it.remove();
+		    bytes -= e.size;
+		}
+	    }
+	} finally {
+	    lock.unlock();
+	}
+	invalidations.incrementAndGet();
+    }
+
+    public void clear() {
+	lock.lock();
+	try {
+	    for (AtomicLong g : generations.values()) {
+		g.incrementAndGet();
+	    }
+	    map.clear();
+	    bytes = 0;
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    private static long estimateSize(List<Row> rows) {
+	long size = 64;
+	for (Row row : rows) {
+	    size += 32 + 8 * row.getColumnCount();
+	    for (int i = 0; i < row.getColumnCount(); i++) {
+		Object o = row.get(i);
+		if (o instanceof String) {
+		    size += 40 + 2 * ((String) o).length();
+		} else if (o instanceof byte[]) {
+		    size += 16 + ((byte[]) o).length;
+		} else if (o != null) {
+		    size += 24;
+		}
+	    }
+	}
+	return size;
+    }
+
+    public int size() {
+	lock.lock();
+	try {
+	    return map.size();
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * @return estimated memory used by cached rows
+     */
+    public long getBytes() {
+	lock.lock();
+	try {
+	    return bytes;
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    public long getHits() {
+	return hits.get();
+    }
+
+    public long getMisses() {
+	return misses.get();
+    }
+
+    public long getEvictions() {
+	return evictions.get();
+    }
+
+    public long getInvalidations() {
+	return invalidations.get();
+    }
+
+    public double getHitRatio() {
+	long h = hits.get();
+	long total = h + misses.get();
+	if (total == 0) {
+	    return 0;
+	}
+	return (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+	return "QueryCache[size=" + size() + ", bytes=" + getBytes() + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions="
+		+ getEvictions() + ", invalidations=" + getInvalidations() + "]";
+    }
+}
@@ -32,8 +32,14 @@ package com.smartg.db;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * ResultSet wrapper.
@@ -41,11 +47,15 @@ import java.util.Enumeration;
  * @author andrey
  * 
  */
-public class Result implements Enumeration<ArrayList<Object>> {
+public class Result implements Enumeration<ArrayList<Object>>, AutoCloseable {
 	private ResultSet rs;
+	private Statement statement;
+	private StatementStats stats;
+	private PS_Wrapper owner;
 	TableMetadata resultMetadata;
 	private int columnCount;
 	private boolean hasNext;
+	private boolean cursorStarted;
 
 	SQLException exception;
 
@@ -54,7 +64,16 @@ public class Result implements Enumeration<ArrayList<Object>> {
 	}
 
 	Result(ResultSet rs) {
+		this(rs, (StatementStats) null);
+	}
+
+	/**
+	 * @param stats
+	 *            counters for fetched rows and fetch time (or null)
+	 */
+	Result(ResultSet rs, StatementStats stats) {
 		this.rs = rs;
+		this.stats = stats;
 		if (rs != null) {
 			try {
 				resultMetadata = new TableMetadata(rs.getMetaData());
@@ -69,6 +88,27 @@ public class Result implements Enumeration<ArrayList<Object>> {
 		}
 	}
 
+	/**
+	 * Create Result of cached statement, statement is pinned (not closed by
+	 * cache eviction) until this Result is closed.
+	 */
+	Result(ResultSet rs, StatementStats stats, PS_Wrapper owner) {
+		this(rs, stats);
+		if (owner != null) {
+			owner.pin();
+			this.owner = owner;
+		}
+	}
+
+	/**
+	 * Create Result which owns its statement (statement is closed with
+	 * Result).
+	 */
+	Result(ResultSet rs, Statement statement) {
+		this(rs);
+		this.statement = statement;
+	}
+
 	public SQLException getException() {
 		return exception;
 	}
@@ -80,7 +120,13 @@ public class Result implements Enumeration<ArrayList<Object>> {
 	private void next() {
 		if (rs != null) {
 			try {
-				hasNext = rs.next();
+				if (stats != null) {
+					long start = System.nanoTime();
+					hasNext = rs.next();
+					stats.recordFetch(System.nanoTime() - start, hasNext ? 1 : 0);
+				} else {
+					hasNext = rs.next();
+				}
 			} catch (SQLException ex) {
 				exception = ex;
 				hasNext = false;
@@ -110,6 +156,200 @@ public class Result implements Enumeration<ArrayList<Object>> {
 		return null;
 	}
 
+	/**
+	 * Move cursor to next row (the first call moves to the first row). In
+	 * cursor mode values are read directly from ResultSet with typed getters,
+	 * no objects are allocated per row. Don't mix cursor mode with
+	 * nextElement() or stream().
+	 * 
+	 * <pre>
+	 * while (result.moveNext()) {
+	 * 	sum += result.getLong(0);
+	 * }
+	 * </pre>
+	 * 
+	 * @return false if there are no more rows.
+	 */
+	public boolean moveNext() {
+		if (!cursorStarted) {
+			// first row was already fetched in constructor
+			cursorStarted = true;
+			return hasNext;
+		}
+		if (hasNext) {
+			next();
+		}
+		return hasNext;
+	}
+
+	/**
+	 * Following getters read column of the current cursor row, column index
+	 * is zero based (like in nextElement()).
+	 */
+	public int getInt(int column) throws SQLException {
+		return rs.getInt(column + 1);
+	}
+
+	public long getLong(int column) throws SQLException {
+		return rs.getLong(column + 1);
+	}
+
+	public double getDouble(int column) throws SQLException {
+		return rs.getDouble(column + 1);
+	}
+
+	public boolean getBoolean(int column) throws SQLException {
+		return rs.getBoolean(column + 1);
+	}
+
+	public String getString(int column) throws SQLException {
+		return rs.getString(column + 1);
+	}
+
+	public byte[] getBytes(int column) throws SQLException {
+		return rs.getBytes(column + 1);
+	}
+
+	public Object getObject(int column) throws SQLException {
+		return rs.getObject(column + 1);
+	}
+
+	/**
+	 * @return true if last value read by primitive getter was SQL NULL.
+	 */
+	public boolean wasNull() throws SQLException {
+		return rs.wasNull();
+	}
+
+	/**
+	 * Copy current cursor row into buffer.
+	 * 
+	 * @param buffer
+	 *            reused buffer, new one is allocated if it is null or too
+	 *            small.
+	 * @return buffer
+	 */
+	public Object[] readRow(Object[] buffer) throws SQLException {
+		if (buffer == null || buffer.length < columnCount) {
+			buffer = new Object[columnCount];
+		}
+		for (int i = 0; i < columnCount; i++) {
+			buffer[i] = rs.getObject(i + 1);
+		}
+		return buffer;
+	}
+
+	public int getColumnCount() {
+		return columnCount;
+	}
+
+	/**
+	 * Give JDBC driver a hint how many rows should be fetched at once.
+	 * Drivers which don't support the hint are ignored.
+	 */
+	public void setFetchSize(int rows) {
+		if (rs != null) {
+			try {
+				rs.setFetchSize(rows);
+			} catch (SQLException ex) {
+				// only a hint, not a read error
+			}
+		}
+	}
+
+	/**
+	 * Close underlying ResultSet. No more rows are available after close.
+	 */
+	public void close() {
+		hasNext = false;
+		if (rs != null) {
+			try {
+				rs.close();
+			} catch (SQLException ex) {
+				exception = ex;
+			}
+			rs = null;
+		}
+		if (statement != null) {
+			try {
+				statement.close();
+			} catch (SQLException ex) {
+				exception = ex;
+			}
+			statement = null;
+		}
+		release();
+	}
+
+	/**
+	 * Unpin statement of this Result.
+	 */
+	void release() {
+		PS_Wrapper o;
+		synchronized (this) {
+			o = owner;
+			owner = null;
+		}
+		if (o != null) {
+			o.unpin();
+		}
+	}
+
+	/**
+	 * Rows are read lazily, Result is closed when spliterator is exhausted.
+	 * Read errors are thrown as UncheckedSQLException, so a failed read
+	 * doesn't look like end of result.
+	 */
+	public Spliterator<Row> spliterator() {
+		return new Spliterators.AbstractSpliterator<Row>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+			public boolean tryAdvance(Consumer<? super Row> action) {
+				if (hasNext) {
+					Row row;
+					try {
+						row = readRow();
+					} catch (SQLException ex) {
+						exception = ex;
+						close();
+						throw new UncheckedSQLException(ex);
+					}
+					action.accept(row);
+					return true;
+				}
+				close();
+				if (exception != null) {
+					throw new UncheckedSQLException(exception);
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Sequential stream over remaining rows. Rows are read on demand, so
+	 * memory usage doesn't depend on result size. Result is closed when
+	 * stream is exhausted or closed (use try-with-resources if stream may be
+	 * terminated early).
+	 * 
+	 * @throws UncheckedSQLException
+	 *             (from terminal operation) if rows can't be read
+	 */
+	public Stream<Row> stream() {
+		return StreamSupport.stream(spliterator(), false).onClose(new Runnable() {
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	private Row readRow() throws SQLException {
+		Object[] values = new Object[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			values[i] = rs.getObject(i + 1);
+		}
+		next();
+		return new Row(values, resultMetadata);
+	}
+
 	@Override
 	protected void finalize() throws Throwable {
 		super.finalize();
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Immutable snapshot of database schema: all tables and their columns, loaded
+ * in one pass with DatabaseMetaData.getColumns(). Tables are found by name
+ * (case insensitive, optionally qualified with schema); if unqualified name
+ * exists in several schemas, table of current schema wins.
+ * 
+ * JavaDB_Connection keeps catalog until DDL is executed through it, or until
+ * refreshCatalog() is called.
+ */
+public final class SchemaCatalog {
+
+    private final Map<String, TableMetadata> tables;
+    private final Set<String> tableNames;
+    private final String currentSchema;
+    private final long loadTime;
+
+    private SchemaCatalog(Map<String, TableMetadata> tables, Set<String> tableNames, String currentSchema, long loadTime) {
+	this.tables = tables;
+	this.tableNames = tableNames;
+	this.currentSchema = currentSchema;
+	this.loadTime = loadTime;
+    }
+
+    /**
+     * Load all tables and columns.
+     */
+    static SchemaCatalog load(Connection connection) throws SQLException {
+	long start = System.nanoTime();
+	String schema = currentSchema(connection);
+	HashMap<String, TableMetadata> map = new HashMap<String, TableMetadata>();
+	TreeSet<String> names = new TreeSet<String>();
+	read(connection.getMetaData().getColumns(null, null, "%", "%"), null, schema, map, names);
+	return new SchemaCatalog(Collections.unmodifiableMap(map), Collections.unmodifiableSet(names), schema, System.nanoTime() - start);
+    }
+
+    /**
+     * Table is looked up in case in which database stores unquoted
+     * identifiers (DatabaseMetaData.storesUpperCaseIdentifiers/
+     * storesLowerCaseIdentifiers). If not found, its exact name is searched
+     * case insensitive with getTables(), so quoted names are found too.
+     * 
+     * @return copy of this catalog with columns of given table loaded again
+     *         (table is removed if it doesn't exist anymore).
+     */
+    SchemaCatalog refresh(Connection connection, String tableName) throws SQLException {
+	long start = System.nanoTime();
+	HashMap<String, TableMetadata> map = new HashMap<String, TableMetadata>(tables);
+	TreeSet<String> names = new TreeSet<String>(tableNames);
+	String name = tableName.toUpperCase();
+	int dot = name.lastIndexOf('.');
+	String schema = dot > 0 ? name.substring(0, dot) : null;
+	String table = dot > 0 ? name.substring(dot + 1) : name;
+
+	Iterator<String> keys = map.keySet().iterator();
+	while (keys.hasNext()) {
+	    String key = keys.next();
+	    if (key.equals(table) || (key.endsWith("." + table) && (schema == null || key.equals(name)))) {
+		keys.remove();
+	    }
+	}
+	names.remove(table);
+	DatabaseMetaData md = connection.getMetaData();
+	dot = tableName.lastIndexOf('.');
+	String schemaPattern = dot > 0 ? storedCase(md, tableName.substring(0, dot)) : null;
+	String tablePattern = storedCase(md, dot > 0 ? tableName.substring(dot + 1) : tableName);
+	if (read(md.getColumns(null, schemaPattern, tablePattern, "%"), table, currentSchema, map, names) == 0) {
+	    // quoted identifier stored in other case, find its exact name
+	    ArrayList<String[]> found = new ArrayList<String[]>();
+	    ResultSet rs = md.getTables(null, null, "%", null);
+	    try {
+		while (rs.next()) {
+		    String s = rs.getString("TABLE_SCHEM");
+		    String t = rs.getString("TABLE_NAME");
+		    if (table.equalsIgnoreCase(t) && (schema == null || schema.equalsIgnoreCase(s))) {
+			found.add(new String[] { s, t });
+		    }
+		}
+	    } finally {
+		rs.close();
+	    }
+	    for (String[] st : found) {
+		read(md.getColumns(null, st[0], st[1], "%"), table, currentSchema, map, names);
+	    }
+	}
+	if (!map.containsKey(table)) {
+	    // same table name in other schema
+	    for (Map.Entry<String, TableMetadata> e : map.entrySet()) {
+		if (e.getKey().endsWith("." + table)) {
+		    map.put(table, e.getValue());
+		    names.add(table);
+		    break;
+		}
+	    }
+	}
+	return new SchemaCatalog(Collections.unmodifiableMap(map), Collections.unmodifiableSet(names), currentSchema, System.nanoTime() - start);
+    }
+
+    /**
+     * @return identifier in case in which database stores unquoted
+     *         identifiers (lower case for PostgreSQL, upper case for Derby)
+     */
+    private static String storedCase(DatabaseMetaData md, String identifier) throws SQLException {
+	if (md.storesUpperCaseIdentifiers()) {
+	    return identifier.toUpperCase();
+	}
+	if (md.storesLowerCaseIdentifiers()) {
+	    return identifier.toLowerCase();
+	}
+	return identifier;
+    }
+
+    /**
+     * @param onlyTable
+     *            if not null, other tables are skipped ('_' in pattern matches
+     *            any character)
+     * @return number of tables read
+     */
+    private static int read(ResultSet rs, String onlyTable, String currentSchema, Map<String, TableMetadata> map, Set<String> names)
+	    throws SQLException {
+	try {
+	    int count = 0;
+	    String schema = null;
+	    String table = null;
+	    ArrayList<String> columnNames = new ArrayList<String>();
+	    ArrayList<String> columnTypes = new ArrayList<String>();
+	    while (rs.next()) {
+		String s = rs.getString("TABLE_SCHEM");
+		String t = rs.getString("TABLE_NAME");
+		if (onlyTable != null && !onlyTable.equalsIgnoreCase(t)) {
+		    continue;
+		}
+		if (table != null && (!t.equals(table) || !equals(s, schema))) {
+		    add(map, names, currentSchema, schema, table, columnNames, columnTypes);
+		    count++;
+		}
+		schema = s;
+		table = t;
+		columnNames.add(rs.getString("COLUMN_NAME"));
+		columnTypes.add(rs.getString("TYPE_NAME"));
+	    }
+	    if (table != null) {
+		add(map, names, currentSchema, schema, table, columnNames, columnTypes);
+		count++;
+	    }
+	    return count;
+	} finally {
+	    rs.close();
+	}
+    }
+
+    private static void add(Map<String, TableMetadata> map, Set<String> names, String currentSchema, String schema, String table,
+	    ArrayList<String> columnNames, ArrayList<String> columnTypes) {
+	TableMetadata tm = new TableMetadata(columnNames.toArray(new String[columnNames.size()]), columnTypes.toArray(new String[columnTypes
+		.size()]));
+	columnNames.clear();
+	columnTypes.clear();
+	String name = table.toUpperCase();
+	names.add(name);
+	if (schema != null) {
+	    map.put(schema.toUpperCase() + "." + name, tm);
+	}
+	if (!map.containsKey(name) || equals(schema, currentSchema)) {
+	    map.put(name, tm);
+	}
+    }
+
+    private static boolean equals(String a, String b) {
+	return a == null ? b == null : a.equalsIgnoreCase(b);
+    }
+
+    private static String currentSchema(Connection connection) {
+	try {
+	    return connection.getSchema();
+	} catch (SQLException | AbstractMethodError ex) {
+	    return null;
+	}
+    }
+
+    public boolean hasTable(String name) {
+	return tables.containsKey(name.toUpperCase());
+    }
+
+    /**
+     * @param name
+     *            table name, optionally qualified with schema (SCHEMA.TABLE)
+     * @return metadata or null if table not exists
+     */
+    public TableMetadata getTable(String name) {
+	return tables.get(name.toUpperCase());
+    }
+
+    /**
+     * @return unqualified names of all tables (upper case)
+     */
+    public Set<String> getTableNames() {
+	return tableNames;
+    }
+
+    public int getTableCount() {
+	return tableNames.size();
+    }
+
+    /**
+     * @return time spent loading this snapshot
+     */
+    public long getLoadTimeNanos() {
+	return loadTime;
+    }
+
+    @Override
+    public String toString() {
+	return "SchemaCatalog[tables=" + tableNames.size() + ", schema=" + currentSchema + ", loaded in " + (loadTime / 1000000) + "ms]";
+    }
+}
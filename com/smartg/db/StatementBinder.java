@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.sql.SQLException;
+
+/**
+ * Binds parameters of prepared statement with typed setters, so primitive
+ * values are not boxed. Parameter index is one based (as in JDBC).
+ * 
+ * Binder is reused by its statement, it is not thread safe and should not be
+ * kept across calls.
+ * 
+ * <pre>
+ * jdbc.getBinder(name).setLong(1, id).setString(2, name).executeUpdate();
+ * </pre>
+ */
+public class StatementBinder {
+
+    private final PS_Wrapper ps;
+
+    /**
+     * Called after each execution (also if it failed), e.g. to invalidate
+     * query cache of table.
+     */
+    Runnable executeListener;
+
+    StatementBinder(PS_Wrapper ps) {
+	this.ps = ps;
+    }
+
+    public StatementBinder setInt(int index, int value) throws SQLException {
+	ps.setInt(index, value);
+	return this;
+    }
+
+    public StatementBinder setLong(int index, long value) throws SQLException {
+	ps.setLong(index, value);
+	return this;
+    }
+
+    public StatementBinder setDouble(int index, double value) throws SQLException {
+	ps.setDouble(index, value);
+	return this;
+    }
+
+    public StatementBinder setBoolean(int index, boolean value) throws SQLException {
+	ps.setBoolean(index, value);
+	return this;
+    }
+
+    public StatementBinder setString(int index, String value) throws SQLException {
+	ps.setString(index, value);
+	return this;
+    }
+
+    public StatementBinder setBytes(int index, byte[] value) throws SQLException {
+	ps.setBytes(index, value);
+	return this;
+    }
+
+    public StatementBinder setNull(int index) throws SQLException {
+	ps.setNull(index);
+	return this;
+    }
+
+    /**
+     * Bind value according to binding plan of statement.
+     */
+    public StatementBinder setValue(int index, Object value) throws SQLException {
+	ps.setValue(index, value);
+	return this;
+    }
+
+    /**
+     * Execute statement with bound parameters.
+     * 
+     * @return true if statement returned ResultSet
+     */
+    public boolean execute() throws SQLException {
+	try {
+	    return ps.execute();
+	} finally {
+	    executed();
+	}
+    }
+
+    public int executeUpdate() throws SQLException {
+	try {
+	    return ps.executeUpdate();
+	} finally {
+	    executed();
+	}
+    }
+
+    private void executed() {
+	Runnable listener = executeListener;
+	if (listener != null) {
+	    listener.run();
+	}
+    }
+
+    /**
+     * @return Result of last execution or null
+     */
+    public Result getResult() throws SQLException {
+	return ps.getResult();
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded LRU cache of prepared statements. Statements evicted from cache are
+ * closed (statement with open Result is closed when Result is closed), they
+ * will be prepared again on next use.
+ * 
+ * Hit, miss and eviction counters may be used to tune cache size (e.g.
+ * against derby.language.statementCacheSize).
+ */
+public class StatementCache {
+
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private final LinkedHashMap<String, PS_Wrapper> map = new LinkedHashMap<String, PS_Wrapper>(16, 0.75f, true);
+    private int maxSize;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public StatementCache() {
+	this(DEFAULT_MAX_SIZE);
+    }
+
+    public StatementCache(int maxSize) {
+	if (maxSize <= 0) {
+	    throw new IllegalArgumentException("maxSize: " + maxSize);
+	}
+	this.maxSize = maxSize;
+    }
+
+    /**
+     * Get statement and update hit/miss counters.
+     */
+    PS_Wrapper get(String name) {
+	PS_Wrapper ps;
+	lock.lock();
+	try {
+	    ps = map.get(name);
+	} finally {
+	    lock.unlock();
+	}
+	if (ps != null) {
+	    hits.incrementAndGet();
+	} else {
+	    misses.incrementAndGet();
+	}
+	return ps;
+    }
+
+    /**
+     * Get statement without touching counters or LRU order.
+     */
+    PS_Wrapper peek(String name) {
+	lock.lock();
+	try {
+	    return map.get(name);
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    void put(String name, PS_Wrapper ps) {
+	ArrayList<PS_Wrapper> evicted = new ArrayList<PS_Wrapper>();
+	lock.lock();
+	try {
+	    PS_Wrapper old = map.put(name, ps);
+	    if (old != null && old != ps) {
+		evicted.add(old);
+	    }
+	    trim(evicted);
+	} finally {
+	    lock.unlock();
+	}
+	close(evicted);
+    }
+
+    void remove(String name) {
+	PS_Wrapper ps;
+	lock.lock();
+	try {
+	    ps = map.remove(name);
+	} finally {
+	    lock.unlock();
+	}
+	if (ps != null) {
+	    ps.retire();
+	}
+    }
+
+    /**
+     * Remove and close all statements.
+     */
+    void clear() {
+	ArrayList<PS_Wrapper> list;
+	lock.lock();
+	try {
+	    list = new ArrayList<PS_Wrapper>(map.values());
+	    map.clear();
+	} finally {
+	    lock.unlock();
+	}
+	close(list);
+    }
+
+    private void trim(ArrayList<PS_Wrapper> evicted) {
+	Iterator<Map.Entry<String, PS_Wrapper>> it = map.entrySet().iterator();
+	while (map.size() > maxSize && it.hasNext()) {
+	    evicted.add(it.next().getValue());
+	    it.remove();
+	    evictions.incrementAndGet();
+	}
+    }
+
+    private static void close(ArrayList<PS_Wrapper> list) {
+	for (PS_Wrapper ps : list) {
+	    ps.retire();
+	}
+    }
+
+    public int size() {
+	lock.lock();
+	try {
+	    return map.size();
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    public int getMaxSize() {
+	lock.lock();
+	try {
+	    return maxSize;
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Change cache size, statements above new limit are closed.
+     */
+    public void setMaxSize(int maxSize) {
+	if (maxSize <= 0) {
+	    throw new IllegalArgumentException("maxSize: " + maxSize);
+	}
+	ArrayList<PS_Wrapper> evicted = new ArrayList<PS_Wrapper>();
+	lock.lock();
+	try {
+	    this.maxSize = maxSize;
+	    trim(evicted);
+	} finally {
+	    lock.unlock();
+	}
+	close(evicted);
+    }
+
+    public long getHits() {
+	return hits.get();
+    }
+
+    public long getMisses() {
+	return misses.get();
+    }
+
+    public long getEvictions() {
+	return evictions.get();
+    }
+
+    public double getHitRatio() {
+	long h = hits.get();
+	long total = h + misses.get();
+	if (total == 0) {
+	    return 0;
+	}
+	return (double) h / total;
+    }
+
+    public void resetStatistics() {
+	hits.set(0);
+	misses.set(0);
+	evictions.set(0);
+    }
+
+    @Override
+    public String toString() {
+	return "StatementCache[size=" + size() + ", max=" + getMaxSize() + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions="
+		+ getEvictions() + "]";
+    }
+}
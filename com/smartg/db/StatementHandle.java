@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable, precompiled statement: name, SQL and parameter types are
+ * computed once. Each handle has unique id, which is used by connection to
+ * find PS_Wrapper of handle in a small slot array, so executing a handle
+ * usually doesn't build statement names or look up maps. Statements of
+ * handles are kept in StatementCache of connection, so handles should be
+ * created once and reused (like TableDef does).
+ * 
+ * Handles of table statements are created by TableDef (getInsertHandle,
+ * getSelectHandle, getCountHandle, getUpdateHandle).
+ */
+public final class StatementHandle {
+
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    final int id;
+    private final String name;
+    private final String sql;
+    private final int[] types;
+    private final String table;
+    private final boolean returnGeneratedKeys;
+
+    /**
+     * @param name
+     *            statement name (used for metrics and query cache)
+     * @param sql
+     *            SQL of prepared statement
+     * @param types
+     *            parameter types (java.sql.Types) or null
+     * @param table
+     *            table name or null
+     */
+    public StatementHandle(String name, String sql, int[] types, String table) {
+	this(name, sql, types, table, false);
+    }
+
+    /**
+     * @param returnGeneratedKeys
+     *            if true statement is prepared with
+     *            Statement.RETURN_GENERATED_KEYS
+     */
+    public StatementHandle(String name, String sql, int[] types, String table, boolean returnGeneratedKeys) {
+	this.id = ids.getAndIncrement();
+	this.name = name;
+	this.sql = sql;
+	this.types = types != null ? types.clone() : null;
+	this.table = table;
+	this.returnGeneratedKeys = returnGeneratedKeys;
+    }
+
+    public String getName() {
+	return name;
+    }
+
+    public String getSql() {
+	return sql;
+    }
+
+    /**
+     * @return parameter types (java.sql.Types) or null if unknown
+     */
+    public int[] getParameterTypes() {
+	return types != null ? types.clone() : null;
+    }
+
+    int[] types() {
+	return types;
+    }
+
+    public String getTable() {
+	return table;
+    }
+
+    public boolean isReturnGeneratedKeys() {
+	return returnGeneratedKeys;
+    }
+
+    @Override
+    public String toString() {
+	return name + ": " + sql;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry of per statement and per table metrics. Metrics are disabled by
+ * default, if disabled no time is measured.
+ * 
+ * <pre>
+ * StatementMetrics metrics = StatementMetrics.getDefault();
+ * metrics.setEnabled(true);
+ * metrics.registerMBean();
+ * </pre>
+ */
+public class StatementMetrics implements StatementMetricsMBean {
+
+    /**
+     * Name used for sql executed without prepared statement.
+     */
+    public static final String ADHOC = "<adhoc>";
+
+    private static final StatementMetrics defaultMetrics = new StatementMetrics();
+
+    private final ConcurrentHashMap<String, StatementStats> statements = new ConcurrentHashMap<String, StatementStats>();
+    private final ConcurrentHashMap<String, StatementStats> tables = new ConcurrentHashMap<String, StatementStats>();
+    private volatile boolean enabled;
+
+    public static StatementMetrics getDefault() {
+	return defaultMetrics;
+    }
+
+    public boolean isEnabled() {
+	return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+	this.enabled = enabled;
+    }
+
+    /**
+     * Get (or create) counters of statement.
+     * 
+     * @param name
+     *            statement name
+     * @param table
+     *            table name or null
+     */
+    public StatementStats forStatement(String name, String table) {
+	StatementStats stats = statements.get(name);
+	if (stats == null) {
+	    StatementStats ts = table != null ? forTable(table) : null;
+	    statements.putIfAbsent(name, new StatementStats(name, ts));
+	    stats = statements.get(name);
+	}
+	return stats;
+    }
+
+    public StatementStats forTable(String table) {
+	StatementStats stats = tables.get(table);
+	if (stats == null) {
+	    tables.putIfAbsent(table, new StatementStats(table, null));
+	    stats = tables.get(table);
+	}
+	return stats;
+    }
+
+    public List<MetricsSnapshot> getStatementSnapshots() {
+	return snapshot(statements);
+    }
+
+    public List<MetricsSnapshot> getTableSnapshots() {
+	return snapshot(tables);
+    }
+
+    private static List<MetricsSnapshot> snapshot(ConcurrentHashMap<String, StatementStats> map) {
+	ArrayList<MetricsSnapshot> list = new ArrayList<MetricsSnapshot>();
+	for (StatementStats stats : map.values()) {
+	    list.add(stats.snapshot());
+	}
+	Collections.sort(list, new Comparator<MetricsSnapshot>() {
+	    public int compare(MetricsSnapshot o1, MetricsSnapshot o2) {
+		return Long.compare(o2.getTotalTime(), o1.getTotalTime());
+	    }
+	});
+	return list;
+    }
+
+    public String[] getStatementNames() {
+	return statements.keySet().toArray(new String[0]);
+    }
+
+    public String[] getTableNames() {
+	return tables.keySet().toArray(new String[0]);
+    }
+
+    public String[] getStatementSummaries() {
+	return toStrings(getStatementSnapshots());
+    }
+
+    public String[] getTableSummaries() {
+	return toStrings(getTableSnapshots());
+    }
+
+    public String getStatementSummary(String name) {
+	StatementStats stats = statements.get(name);
+	return stats != null ? stats.snapshot().toString() : null;
+    }
+
+    private static String[] toStrings(List<MetricsSnapshot> list) {
+	String[] s = new String[list.size()];
+	for (int i = 0; i < s.length; i++) {
+	    s[i] = list.get(i).toString();
+	}
+	return s;
+    }
+
+    public void reset() {
+	for (StatementStats stats : statements.values()) {
+	    stats.reset();
+	}
+	for (StatementStats stats : tables.values()) {
+	    stats.reset();
+	}
+    }
+
+    /**
+     * Register this registry in platform MBeanServer as
+     * com.smartg.db:type=StatementMetrics.
+     * 
+     * @return true if registered
+     */
+    public boolean registerMBean() {
+	try {
+	    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	    ObjectName name = new ObjectName("com.smartg.db:type=StatementMetrics");
+	    if (!server.isRegistered(name)) {
+		server.registerMBean(this, name);
+	    }
+	    return true;
+	} catch (JMException ex) {
+	    Logger.getLogger(getClass().getName()).log(Level.WARNING, "Can't register MBean", ex);
+	    return false;
+	}
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one statement (or of all statements of one table). Counters
+ * are lock-free, values of statement are added to its table too.
+ */
+public class StatementStats {
+
+    private final String name;
+    private final StatementStats table;
+
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder bindNanos = new LongAdder();
+    private final LongAdder executeNanos = new LongAdder();
+    private final LongAdder fetchNanos = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    StatementStats(String name, StatementStats table) {
+	this.name = name;
+	this.table = table;
+    }
+
+    void recordExecute(long bind, long execute) {
+	executions.increment();
+	bindNanos.add(bind);
+	executeNanos.add(execute);
+	latency.record(bind + execute);
+	if (table != null) {
+	    table.recordExecute(bind, execute);
+	}
+    }
+
+    void recordFetch(long nanos, int rowCount) {
+	fetchNanos.add(nanos);
+	rows.add(rowCount);
+	if (table != null) {
+	    table.recordFetch(nanos, rowCount);
+	}
+    }
+
+    void recordError() {
+	errors.increment();
+	if (table != null) {
+	    table.recordError();
+	}
+    }
+
+    public String getName() {
+	return name;
+    }
+
+    public long getExecutions() {
+	return executions.sum();
+    }
+
+    public long getErrors() {
+	return errors.sum();
+    }
+
+    public long getRows() {
+	return rows.sum();
+    }
+
+    public long getBindTime(TimeUnit unit) {
+	return unit.convert(bindNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getExecuteTime(TimeUnit unit) {
+	return unit.convert(executeNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getFetchTime(TimeUnit unit) {
+	return unit.convert(fetchNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return histogram of bind + execute time in nanoseconds
+     */
+    public LatencyHistogram getLatency() {
+	return latency;
+    }
+
+    public void reset() {
+	executions.reset();
+	errors.reset();
+	rows.reset();
+	bindNanos.reset();
+	executeNanos.reset();
+	fetchNanos.reset();
+	latency.reset();
+    }
+
+    public MetricsSnapshot snapshot() {
+	return new MetricsSnapshot(this);
+    }
+}
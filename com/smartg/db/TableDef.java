@@ -30,6 +30,7 @@
 
 package com.smartg.db;
 
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
@@ -45,6 +46,51 @@ public class TableDef {
     private final int columnsLengthForInsert;
 
     private ArrayList<int[]> conditionColumns = new ArrayList<int[]>();
+    private ArrayList<int[][]> updateColumns = new ArrayList<int[][]>();
+
+    private final StatementHandle insertHandle;
+    private final StatementHandle insertKeysHandle;
+    private final StatementHandle selectHandle;
+    private final StatementHandle countHandle;
+    private final StatementHandle[] selectHandles;
+    private final StatementHandle[] countHandles;
+    private final StatementHandle[] updateHandles;
+    private volatile ConditionHandles[] conditionHandles = new ConditionHandles[0];
+    private volatile PageHandles[] pageHandles = new PageHandles[0];
+    private final ScanHandles[] scanHandles;
+    private volatile UpdateHandles[] multiUpdateHandles = new UpdateHandles[0];
+    private int[] keyColumns = new int[0];
+    private final StatementHandle[] upsertHandles = new StatementHandle[Dialect.values().length];
+
+    /**
+     * Select and count handles for set of condition columns.
+     */
+    private static class ConditionHandles {
+	final int[] columns;
+	final StatementHandle select;
+	final StatementHandle count;
+
+	ConditionHandles(int[] columns, StatementHandle select, StatementHandle count) {
+	    this.columns = columns;
+	    this.select = select;
+	    this.count = count;
+	}
+    }
+
+    /**
+     * Update handle for set of update and condition columns.
+     */
+    private static class UpdateHandles {
+	final int[] update;
+	final int[] condition;
+	final StatementHandle handle;
+
+	UpdateHandles(int[] update, int[] condition, StatementHandle handle) {
+	    this.update = update;
+	    this.condition = condition;
+	    this.handle = handle;
+	}
+    }
 
     static class Columns {
 
@@ -96,14 +142,324 @@ public class TableDef {
 	}
     }
 
+    /**
+     * First and next page handles for key column and page size.
+     */
+    private static class PageHandles {
+	final int column;
+	final int size;
+	final StatementHandle first;
+	final StatementHandle next;
+
+	PageHandles(int column, int size, StatementHandle first, StatementHandle next) {
+	    this.column = column;
+	    this.size = size;
+	    this.first = first;
+	    this.next = next;
+	}
+    }
+
+    /**
+     * Statements of ParallelScan for key column.
+     */
+    static class ScanHandles {
+	final StatementHandle range;
+	final StatementHandle lastRange;
+	final StatementHandle minMax;
+	final StatementHandle count;
+	final StatementHandle orderedKeys;
+
+	ScanHandles(String tableName, int keyColumn, String key) {
+	    String suffix = tableName + "_" + keyColumn;
+	    String sql = "select * from " + tableName + " where " + key + " >= ? AND " + key;
+	    int[] types = new int[] { Types.BIGINT, Types.BIGINT };
+	    range = new StatementHandle("rangeScan_" + suffix, sql + " < ?", types, tableName);
+	    lastRange = new StatementHandle("lastRangeScan_" + suffix, sql + " <= ?", types, tableName);
+	    minMax = new StatementHandle("minMax_" + suffix, "select MIN(" + key + "), MAX(" + key + ") from " + tableName, new int[0], tableName);
+	    count = new StatementHandle("countKey_" + suffix, "select COUNT(" + key + ") from " + tableName, new int[0], tableName);
+	    orderedKeys = new StatementHandle("orderedKeys_" + suffix, "select " + key + " from " + tableName + " where " + key
+		    + " IS NOT NULL order by " + key, new int[0], tableName);
+	}
+    }
+
     public TableDef(String tableName, Column[] columns) {
 	this.tableName = tableName;
 	this.columns = new Columns(columns);
 	columnsLengthForInsert = this.columns.getColumnsLengthForInsert();
+	insertHandle = new StatementHandle(getInsertStatementName(), getPreparedInsertStatement(), getInsertParameterTypes(), tableName);
+	insertKeysHandle = hasGeneratedKey() ? new StatementHandle("insertKeysStat_" + tableName, getPreparedInsertStatement(),
+		getInsertParameterTypes(), tableName, true) : null;
+	selectHandle = new StatementHandle(getSelectStatementName(), getPreparedSelectStatement(), new int[0], tableName);
+	countHandle = new StatementHandle(getCountStatementName(), getPreparedCountStatement(), new int[0], tableName);
+	selectHandles = new StatementHandle[columns.length];
+	countHandles = new StatementHandle[columns.length];
+	updateHandles = new StatementHandle[columns.length * columns.length];
+	scanHandles = new ScanHandles[columns.length];
     }
 
     public void addConditionColumns(int... cc) {
 	conditionColumns.add(cc);
+	if (cc.length > 1) {
+	    getConditionHandles(cc);
+	}
+    }
+
+    /**
+     * @return handle of insert statement (all columns except auto increment
+     *         columns)
+     */
+    public StatementHandle getInsertHandle() {
+	return insertHandle;
+    }
+
+    /**
+     * @return true if table has auto increment (identity) column
+     */
+    public boolean hasGeneratedKey() {
+	return columnsLengthForInsert < columns.columns.length;
+    }
+
+    /**
+     * @return handle of insert statement prepared with
+     *         Statement.RETURN_GENERATED_KEYS
+     * @throws IllegalStateException
+     *             if table has no auto increment column
+     */
+    public StatementHandle getInsertKeysHandle() {
+	if (insertKeysHandle == null) {
+	    throw new IllegalStateException("No auto increment column in " + tableName);
+	}
+	return insertKeysHandle;
+    }
+
+    /**
+     * @return handle of "select * from table"
+     */
+    public StatementHandle getSelectHandle() {
+	return selectHandle;
+    }
+
+    /**
+     * @return handle of "select COUNT(*) from table"
+     */
+    public StatementHandle getCountHandle() {
+	return countHandle;
+    }
+
+    /**
+     * @return handle of select statement with condition on given column
+     */
+    public StatementHandle getSelectHandle(int column) {
+	StatementHandle h = selectHandles[column];
+	if (h == null) {
+	    h = createHandle(selectHandles, column, getSelectStatementName(column), getPreparedSelectStatement(new int[] { column }), column);
+	}
+	return h;
+    }
+
+    /**
+     * @return handle of count statement with condition on given column
+     */
+    public StatementHandle getCountHandle(int column) {
+	StatementHandle h = countHandles[column];
+	if (h == null) {
+	    h = createHandle(countHandles, column, getCountStatementName(column), getPreparedCountStatement(new int[] { column }), column);
+	}
+	return h;
+    }
+
+    /**
+     * @return handle of select statement with conditions on given columns
+     */
+    public StatementHandle getSelectHandle(int... columns) {
+	if (columns.length == 1) {
+	    return getSelectHandle(columns[0]);
+	}
+	return getConditionHandles(columns).select;
+    }
+
+    /**
+     * @return handle of count statement with conditions on given columns
+     */
+    public StatementHandle getCountHandle(int... columns) {
+	if (columns.length == 1) {
+	    return getCountHandle(columns[0]);
+	}
+	return getConditionHandles(columns).count;
+    }
+
+    public StatementHandle getSelectHandle(String... names) {
+	return getSelectHandle(getColumnIndexes(names));
+    }
+
+    public StatementHandle getCountHandle(String... names) {
+	return getCountHandle(getColumnIndexes(names));
+    }
+
+    /**
+     * @return handle of statement which sets updateColumn where
+     *         conditionColumn = ?, parameters are (update value, condition
+     *         value).
+     */
+    public StatementHandle getUpdateHandle(int conditionColumn, int updateColumn) {
+	int index = conditionColumn * selectHandles.length + updateColumn;
+	StatementHandle h = updateHandles[index];
+	if (h == null) {
+	    synchronized (this) {
+		h = updateHandles[index];
+		if (h == null) {
+		    h = new StatementHandle(getUpdateStatementName() + conditionColumn + " " + updateColumn,
+			    getPreparedUpdateStatement(conditionColumn, updateColumn), getParameterTypes(updateColumn, conditionColumn), tableName);
+		    updateHandles[index] = h;
+		}
+	    }
+	}
+	return h;
+    }
+
+    /**
+     * @return handle of statement which sets updateColumns where
+     *         conditionColumns = ?, parameters are update values followed by
+     *         condition values. Without condition columns all rows are
+     *         updated.
+     */
+    public StatementHandle getUpdateHandle(int[] updateColumns, int[] conditionColumns) {
+	UpdateHandles[] list = multiUpdateHandles;
+	for (UpdateHandles uh : list) {
+	    if (Arrays.equals(uh.update, updateColumns) && Arrays.equals(uh.condition, conditionColumns)) {
+		return uh.handle;
+	    }
+	}
+	synchronized (this) {
+	    list = multiUpdateHandles;
+	    for (UpdateHandles uh : list) {
+		if (Arrays.equals(uh.update, updateColumns) && Arrays.equals(uh.condition, conditionColumns)) {
+		    return uh.handle;
+		}
+	    }
+	    int[] uc = updateColumns.clone();
+	    int[] cc = conditionColumns.clone();
+	    int[] all = Arrays.copyOf(uc, uc.length + cc.length);
+	    System.arraycopy(cc, 0, all, uc.length, cc.length);
+	    UpdateHandles uh = new UpdateHandles(uc, cc, new StatementHandle(getUpdateStatementName(uc, cc), getPreparedUpdateStatement(uc, cc),
+		    getParameterTypes(all), tableName));
+	    list = Arrays.copyOf(list, list.length + 1);
+	    list[list.length - 1] = uh;
+	    multiUpdateHandles = list;
+	    return uh.handle;
+	}
+    }
+
+    public StatementHandle getUpdateHandle(String[] updateColumns, String[] conditionColumns) {
+	return getUpdateHandle(getColumnIndexes(updateColumns), getColumnIndexes(conditionColumns));
+    }
+
+    private synchronized StatementHandle createHandle(StatementHandle[] handles, int index, String name, String sql, int column) {
+	StatementHandle h = handles[index];
+	if (h == null) {
+	    h = new StatementHandle(name, sql, getParameterTypes(column), tableName);
+	    handles[index] = h;
+	}
+	return h;
+    }
+
+    private ConditionHandles getConditionHandles(int[] columns) {
+	ConditionHandles[] list = conditionHandles;
+	for (ConditionHandles ch : list) {
+	    if (Arrays.equals(ch.columns, columns)) {
+		return ch;
+	    }
+	}
+	synchronized (this) {
+	    list = conditionHandles;
+	    for (ConditionHandles ch : list) {
+		if (Arrays.equals(ch.columns, columns)) {
+		    return ch;
+		}
+	    }
+	    int[] cc = columns.clone();
+	    int[] types = getParameterTypes(cc);
+	    ConditionHandles ch = new ConditionHandles(cc, new StatementHandle(getSelectStatementName(cc), getPreparedSelectStatement(cc), types,
+		    tableName), new StatementHandle(getCountStatementName(cc), getPreparedCountStatement(cc), types, tableName));
+	    list = Arrays.copyOf(list, list.length + 1);
+	    list[list.length - 1] = ch;
+	    conditionHandles = list;
+	    return ch;
+	}
+    }
+
+    /**
+     * @return handle of first page of keyset pagination (pageSize + 1 rows
+     *         ordered by key column, extra row tells if there is next page)
+     */
+    public StatementHandle getFirstPageHandle(int keyColumn, int pageSize) {
+	return getPageHandles(keyColumn, pageSize).first;
+    }
+
+    /**
+     * @return handle of next page of keyset pagination, parameter is key of
+     *         last row of previous page.
+     */
+    public StatementHandle getNextPageHandle(int keyColumn, int pageSize) {
+	return getPageHandles(keyColumn, pageSize).next;
+    }
+
+    private PageHandles getPageHandles(int keyColumn, int pageSize) {
+	PageHandles[] list = pageHandles;
+	for (PageHandles ph : list) {
+	    if (ph.column == keyColumn && ph.size == pageSize) {
+		return ph;
+	    }
+	}
+	synchronized (this) {
+	    list = pageHandles;
+	    for (PageHandles ph : list) {
+		if (ph.column == keyColumn && ph.size == pageSize) {
+		    return ph;
+		}
+	    }
+	    String suffix = tableName + "_" + keyColumn + "_" + pageSize;
+	    PageHandles ph = new PageHandles(keyColumn, pageSize, new StatementHandle("firstPageStat_" + suffix, getPreparedPageStatement(
+		    keyColumn, pageSize + 1, true), new int[0], tableName), new StatementHandle("pageStat_" + suffix, getPreparedPageStatement(
+		    keyColumn, pageSize + 1, false), getParameterTypes(keyColumn), tableName));
+	    list = Arrays.copyOf(list, list.length + 1);
+	    list[list.length - 1] = ph;
+	    pageHandles = list;
+	    return ph;
+	}
+    }
+
+    /**
+     * @return statements of ParallelScan for key column, created once per
+     *         column
+     */
+    synchronized ScanHandles getScanHandles(int keyColumn) {
+	ScanHandles sh = scanHandles[keyColumn];
+	if (sh == null) {
+	    sh = new ScanHandles(tableName, keyColumn, columns.getColumn(keyColumn).getName());
+	    scanHandles[keyColumn] = sh;
+	}
+	return sh;
+    }
+
+    /**
+     * @param first
+     *            if true statement has no key condition
+     * @return "select * from table where key > ? order by key FETCH FIRST rows
+     *         ROWS ONLY"
+     */
+    public String getPreparedPageStatement(int keyColumn, int rows, boolean first) {
+	String key = columns.getColumn(keyColumn).getName();
+	String where = first ? "" : " where " + key + " > ?";
+	return "select * from " + tableName + where + " order by " + key + " FETCH FIRST " + rows + " ROWS ONLY";
+    }
+
+    private int[] getColumnIndexes(String... names) {
+	int[] nn = new int[names.length];
+	for (int i = 0; i < names.length; i++) {
+	    nn[i] = columns.getColumnIndex(names[i]);
+	}
+	return nn;
     }
 
     public void addConditionColumns(String... cc) {
@@ -119,10 +475,249 @@ public class TableDef {
 	return new SafeIterator<int[]>(conditionColumns.iterator());
     }
 
+    /**
+     * Register update statement for DB_TableManager.prepareStatements(), see
+     * getUpdateHandle(int[], int[]).
+     */
+    public void addUpdateColumns(int[] updateColumns, int[] conditionColumns) {
+	this.updateColumns.add(new int[][] { updateColumns.clone(), conditionColumns.clone() });
+	getUpdateHandle(updateColumns, conditionColumns);
+    }
+
+    public void addUpdateColumns(String[] updateColumns, String[] conditionColumns) {
+	addUpdateColumns(getColumnIndexes(updateColumns), getColumnIndexes(conditionColumns));
+    }
+
+    /**
+     * @return registered update statements as {updateColumns,
+     *         conditionColumns}
+     */
+    public Enumeration<int[][]> getUpdateColumns() {
+	return new SafeIterator<int[][]>(updateColumns.iterator());
+    }
+
     public Enumeration<Column> columns() {
 	return columns.columns();
     }
 
+    public Column getColumn(int column) {
+	return columns.getColumn(column);
+    }
+
+    public Column getColumn(String name) {
+	return columns.getColumn(name);
+    }
+
+    /**
+     * @return index of column or -1
+     */
+    public int getColumnIndex(String name) {
+	return columns.getColumnIndex(name);
+    }
+
+    /**
+     * @return name of sequence of BIGINT_SEQ or INTEGER_SEQ column
+     */
+    public String getSequenceName(int column) {
+	return "SEQ_" + tableName + "_" + columns.getColumn(column).getName();
+    }
+
+    public String getSequenceName(String column) {
+	return getSequenceName(columns.getColumnIndex(column));
+    }
+
+    /**
+     * @return "CREATE SEQUENCE name AS BIGINT START WITH 1 INCREMENT BY
+     *         blockSize"
+     * @throws IllegalArgumentException
+     *             if column is not sequence column
+     */
+    public String getPreparedCreateSequenceStatement(int column) {
+	Column c = columns.getColumn(column);
+	if (!c.isSequence()) {
+	    throw new IllegalArgumentException("Not a sequence column: " + c.getName());
+	}
+	String type = c.getDataType() == Column.ColumnType.BIGINT_SEQ ? "BIGINT" : "INTEGER";
+	return "CREATE SEQUENCE " + getSequenceName(column) + " AS " + type + " START WITH 1 INCREMENT BY " + c.getBlockSize();
+    }
+
+    /**
+     * @return "DROP SEQUENCE name RESTRICT"
+     */
+    public String getPreparedDropSequenceStatement(int column) {
+	return "DROP SEQUENCE " + getSequenceName(column) + " RESTRICT";
+    }
+
+    /**
+     * @return statement which returns next value of sequence of column (first
+     *         id of next block)
+     */
+    public String getPreparedNextValueStatement(int column, Dialect dialect) {
+	String sequence = getSequenceName(column);
+	switch (dialect) {
+	case DERBY:
+	    return "VALUES (NEXT VALUE FOR " + sequence + ")";
+	case POSTGRESQL:
+	    return "SELECT nextval('" + sequence + "')";
+	default:
+	    return "SELECT NEXT VALUE FOR " + sequence;
+	}
+    }
+
+    /**
+     * Declare key columns for upsert. Database must have unique index (or
+     * primary key) on them for PostgreSQL ON CONFLICT.
+     * 
+     * @throws IllegalArgumentException
+     *             if key column is auto increment column
+     */
+    public synchronized void setKeyColumns(int... cc) {
+	for (int c : cc) {
+	    if (columns.getColumn(c).isAutoIncrement) {
+		throw new IllegalArgumentException("Auto increment column can't be upsert key: " + columns.getColumn(c).getName());
+	    }
+	}
+	keyColumns = cc.clone();
+	Arrays.fill(upsertHandles, null);
+    }
+
+    public void setKeyColumns(String... names) {
+	setKeyColumns(getColumnIndexes(names));
+    }
+
+    public synchronized int[] getKeyColumns() {
+	return keyColumns.clone();
+    }
+
+    /**
+     * @return handle of upsert statement, see getPreparedUpsertStatement.
+     *         Parameters are ordered by getUpsertParameterIndexes.
+     */
+    public synchronized StatementHandle getUpsertHandle(Dialect dialect) {
+	StatementHandle h = upsertHandles[dialect.ordinal()];
+	if (h == null) {
+	    int[] indexes = getUpsertParameterIndexes(dialect);
+	    int[] insertTypes = getInsertParameterTypes();
+	    int[] types = new int[indexes.length];
+	    for (int i = 0; i < indexes.length; i++) {
+		types[i] = insertTypes[indexes[i]];
+	    }
+	    h = new StatementHandle(getUpsertStatementName(dialect), getPreparedUpsertStatement(dialect), types, tableName);
+	    upsertHandles[dialect.ordinal()] = h;
+	}
+	return h;
+    }
+
+    public String getUpsertStatementName(Dialect dialect) {
+	String s = "_";
+	for (int c : keyColumns) {
+	    s += c;
+	    s += "_";
+	}
+	return "upsertStat_" + dialect + "_" + tableName + s;
+    }
+
+    /**
+     * Insert row or update non key columns of row with same key columns.
+     * 
+     * DERBY: MERGE INTO table USING SYSIBM.SYSDUMMY1 ON key = ? WHEN MATCHED
+     * THEN UPDATE SET ... WHEN NOT MATCHED THEN INSERT ...
+     * 
+     * POSTGRESQL: INSERT INTO table ... ON CONFLICT (key) DO UPDATE SET c =
+     * EXCLUDED.c
+     * 
+     * @throws IllegalStateException
+     *             if no key columns are set
+     * @throws IllegalArgumentException
+     *             if dialect doesn't support upsert
+     */
+    public synchronized String getPreparedUpsertStatement(Dialect dialect) {
+	if (keyColumns.length == 0) {
+	    throw new IllegalStateException("No key columns for " + tableName);
+	}
+	String insertColumns = getColumns(getInsertColumnIndexes());
+	String updates = "";
+	for (int c : getInsertColumnIndexes()) {
+	    if (!isKeyColumn(c)) {
+		String name = columns.getColumn(c).getName();
+		updates += name + (dialect == Dialect.POSTGRESQL ? " = EXCLUDED." + name : " = ?") + ", ";
+	    }
+	}
+	if (!updates.isEmpty()) {
+	    updates = updates.substring(0, updates.length() - 2);
+	}
+	switch (dialect) {
+	case DERBY:
+	    String on = "";
+	    for (int c : keyColumns) {
+		on += (on.isEmpty() ? "" : " AND ") + tableName + "." + columns.getColumn(c).getName() + " = ?";
+	    }
+	    return "MERGE INTO " + tableName + " USING SYSIBM.SYSDUMMY1 ON " + on
+		    + (updates.isEmpty() ? "" : " WHEN MATCHED THEN UPDATE SET " + updates) + " WHEN NOT MATCHED THEN INSERT " + insertColumns
+		    + " VALUES (" + createString('?', columnsLengthForInsert) + ")";
+	case POSTGRESQL:
+	    return "INSERT INTO " + tableName + " " + insertColumns + " VALUES (" + createString('?', columnsLengthForInsert) + ") ON CONFLICT "
+		    + getColumns(keyColumns) + (updates.isEmpty() ? " DO NOTHING" : " DO UPDATE SET " + updates);
+	default:
+	    throw new IllegalArgumentException("Upsert is not supported for " + dialect);
+	}
+    }
+
+    /**
+     * Upsert statement may use value of a column more than once.
+     * 
+     * @return for every parameter of getPreparedUpsertStatement index of value
+     *         in row (values for all columns except auto increment columns,
+     *         as for insert)
+     */
+    public synchronized int[] getUpsertParameterIndexes(Dialect dialect) {
+	if (dialect != Dialect.DERBY) {
+	    int[] indexes = new int[columnsLengthForInsert];
+	    for (int i = 0; i < indexes.length; i++) {
+		indexes[i] = i;
+	    }
+	    return indexes;
+	}
+	int[] insertColumns = getInsertColumnIndexes();
+	int[] indexes = new int[keyColumns.length + columnsLengthForInsert - keyColumns.length + columnsLengthForInsert];
+	int k = 0;
+	for (int c : keyColumns) {
+	    indexes[k++] = Arrays.binarySearch(insertColumns, c);
+	}
+	for (int i = 0; i < insertColumns.length; i++) {
+	    if (!isKeyColumn(insertColumns[i])) {
+		indexes[k++] = i;
+	    }
+	}
+	for (int i = 0; i < insertColumns.length; i++) {
+	    indexes[k++] = i;
+	}
+	return indexes;
+    }
+
+    private boolean isKeyColumn(int column) {
+	for (int c : keyColumns) {
+	    if (c == column) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * @return indexes of all columns except auto increment columns
+     */
+    private int[] getInsertColumnIndexes() {
+	int[] indexes = new int[columnsLengthForInsert];
+	int k = 0;
+	for (int i = 0; i < columns.columns.length; i++) {
+	    if (!columns.columns[i].isAutoIncrement) {
+		indexes[k++] = i;
+	    }
+	}
+	return indexes;
+    }
+
     public String getInsertStatementName() {
 	return "insertStat_" + tableName;
     }
@@ -146,6 +741,10 @@ public class TableDef {
 	return "insertStat_" + tableName + s;
     }
 
+    public String getMultiRowInsertStatementName(int rows) {
+	return "multiInsertStat_" + tableName + "_" + rows;
+    }
+
     public String getSelectStatementName() {
 	return "selectStat_" + tableName;
     }
@@ -194,18 +793,89 @@ public class TableDef {
     }
 
 
+    int getColumnsLengthForInsert() {
+	return columnsLengthForInsert;
+    }
+
+    /**
+     * Columns without auto increment have to be listed explicitly, otherwise
+     * number of values doesn't match number of table columns.
+     */
+    private String getInsertColumns() {
+	if (columnsLengthForInsert == columns.columns.length) {
+	    return "";
+	}
+	String res = " (";
+	for (Column c : columns.columns) {
+	    if (!c.isAutoIncrement) {
+		res += c.getName();
+		res += ",";
+	    }
+	}
+	res = res.substring(0, res.length() - 1);
+	return res + ")";
+    }
+
+    /**
+     * @return parameter types (java.sql.Types) of getPreparedInsertStatement()
+     */
+    public int[] getInsertParameterTypes() {
+	int[] types = new int[columnsLengthForInsert];
+	int k = 0;
+	for (Column c : columns.columns) {
+	    if (!c.isAutoIncrement) {
+		types[k++] = c.getSqlType();
+	    }
+	}
+	return types;
+    }
+
+    /**
+     * @return parameter types (java.sql.Types) of given columns, e.g. for
+     *         getPreparedSelectStatement(int...)
+     */
+    public int[] getParameterTypes(int... columns) {
+	int[] types = new int[columns.length];
+	for (int i = 0; i < columns.length; i++) {
+	    types[i] = this.columns.getColumn(columns[i]).getSqlType();
+	}
+	return types;
+    }
+
     public String getPreparedInsertStatement() {
-	return "insert into " + tableName + " values ( " + createString('?', columnsLengthForInsert) + ")";
+	return "insert into " + tableName + getInsertColumns() + " values ( " + createString('?', columnsLengthForInsert) + ")";
+    }
+
+    /**
+     * Create insert statement with multiple rows (INSERT ... VALUES (...),
+     * (...)).
+     * 
+     * @param rows
+     *            number of rows
+     */
+    public String getPreparedMultiRowInsertStatement(int rows) {
+	StringBuffer sb = new StringBuffer("insert into ");
+	sb.append(tableName);
+	sb.append(getInsertColumns());
+	sb.append(" values ");
+	String row = "(" + createString('?', columnsLengthForInsert) + ")";
+	for (int i = 0; i < rows; i++) {
+	    if (i > 0) {
+		sb.append(", ");
+	    }
+	    sb.append(row);
+	}
+	return sb.toString();
     }
 
     public String getPreparedInsertStatement(int... columns) {
 	String names = getColumns(columns);
-	return "insert into " + tableName + names + " values ( " + createString('?', columnsLengthForInsert) + ")";
+	return "insert into " + tableName + names + " values ( " + createString('?', columns.length) + ")";
     }
 
     public String getPreparedInsertStatement(String... columns) {
 	String names = getColumns(columns);
-	return "insert into " + tableName + names + " values ( " + createString('?', columnsLengthForInsert) + ")";
+	return "insert into " + tableName + names + " values ( " + createString('?', columns.length) + ")";
     }
 
     public String getPreparedSelectStatement(int column) {
@@ -293,6 +963,35 @@ public class TableDef {
 		+ " = ? ";
     }
 
+    public String getUpdateStatementName(int[] updateColumns, int[] conditionColumns) {
+	String s = "_";
+	for (int c : updateColumns) {
+	    s += c;
+	    s += "_";
+	}
+	s += "where_";
+	for (int c : conditionColumns) {
+	    s += c;
+	    s += "_";
+	}
+	return "updateStat_" + tableName + s;
+    }
+
+    /**
+     * @return "UPDATE table SET a = ?, b = ? WHERE c = ? AND d = ?"
+     */
+    public String getPreparedUpdateStatement(int[] updateColumns, int[] conditionColumns) {
+	if (updateColumns.length == 0) {
+	    throw new IllegalArgumentException("No update columns");
+	}
+	String set = "";
+	for (int c : updateColumns) {
+	    set += (set.isEmpty() ? "" : ", ") + columns.getColumn(c).getName() + " = ?";
+	}
+	String where = conditionColumns.length > 0 ? " WHERE " + fillCoulumns(conditionColumns) : "";
+	return "UPDATE " + tableName + " SET " + set + where;
+    }
+
     public String getPreparedUpdateStatement(String conditionColumn, String updateColumn) {
 	return "UPDATE " + tableName + " SET " + columns.getColumn(updateColumn).getName() + " = ? WHERE " + columns.getColumn(conditionColumn).getName()
 		+ " = ? ";
@@ -46,6 +46,28 @@ public class TableMetadata {
 	this.rs_metadata = rsMetadata;
 	columnCount = rs_metadata.getColumnCount();
     }
+
+    /**
+     * Create metadata snapshot, which doesn't depend on open ResultSet.
+     */
+    public TableMetadata(String[] columnNames, String[] columnTypes) {
+	if (columnNames.length != columnTypes.length) {
+	    throw new IllegalArgumentException(columnNames.length + " names, " + columnTypes.length + " types");
+	}
+	this.columnNames = columnNames.clone();
+	this.columnTypes = columnTypes.clone();
+	this.columnCount = columnNames.length;
+    }
+
+    /**
+     * @return snapshot of this metadata (column names and types are copied)
+     */
+    public TableMetadata snapshot() {
+	if (rs_metadata == null) {
+	    return this;
+	}
+	return new TableMetadata(getColumnNames(), getColumnTypes());
+    }
     
     public int getColumnCount() {
 	return columnCount;
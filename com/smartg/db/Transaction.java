@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Unit of work on JavaDB_Connection, see JavaDB_Connection.begin(Isolation).
+ * 
+ * Auto-commit is turned off and isolation level is set for the duration of
+ * transaction, so all statements executed on connection (prepared and ad-hoc)
+ * share one commit. Previous auto-commit mode and isolation level are restored
+ * by commit(), rollback() or close(). close() rolls back if transaction was not
+ * committed, so it can be used with try-with-resources:
+ * 
+ * <pre>
+ * try (Transaction tx = jdbc.begin(Isolation.READ_COMMITTED)) {
+ *     ...
+ *     tx.commit();
+ * }
+ * </pre>
+ * 
+ * BatchWriter and BulkLoader don't commit inside transaction.
+ */
+public class Transaction implements AutoCloseable {
+
+    public static enum Isolation {
+	/**
+	 * Dirty reads allowed, no read locks. Suitable for viewer scans.
+	 */
+	READ_UNCOMMITTED(Connection.TRANSACTION_READ_UNCOMMITTED),
+	READ_COMMITTED(Connection.TRANSACTION_READ_COMMITTED),
+	REPEATABLE_READ(Connection.TRANSACTION_REPEATABLE_READ),
+	SERIALIZABLE(Connection.TRANSACTION_SERIALIZABLE);
+
+	final int level;
+
+	private Isolation(int level) {
+	    this.level = level;
+	}
+
+	/**
+	 * @return java.sql.Connection isolation constant
+	 */
+	public int getLevel() {
+	    return level;
+	}
+    }
+
+    private final JavaDB_Connection jdbc;
+    private final Isolation isolation;
+    private final boolean autoCommit;
+    private final int previousIsolation;
+    private boolean finished;
+
+    Transaction(JavaDB_Connection jdbc, Isolation isolation) throws SQLException {
+	this.jdbc = jdbc;
+	Connection connection = jdbc.getConnection();
+	this.autoCommit = connection.getAutoCommit();
+	this.previousIsolation = connection.getTransactionIsolation();
+	this.isolation = isolation;
+	if (autoCommit) {
+	    connection.setAutoCommit(false);
+	}
+	try {
+	    if (isolation != null && isolation.level != previousIsolation) {
+		connection.setTransactionIsolation(isolation.level);
+	    }
+	} catch (SQLException ex) {
+	    if (autoCommit) {
+		connection.setAutoCommit(true);
+	    }
+	    throw ex;
+	}
+    }
+
+    /**
+     * @return isolation level of this transaction or null if connection's
+     *         level is used
+     */
+    public Isolation getIsolation() {
+	return isolation;
+    }
+
+    public boolean isActive() {
+	return !finished;
+    }
+
+    public void commit() throws SQLException {
+	checkActive();
+	try {
+	    jdbc.getConnection().commit();
+	} catch (SQLException ex) {
+	    rollback();
+	    throw ex;
+	}
+	end();
+    }
+
+    public void rollback() throws SQLException {
+	checkActive();
+	try {
+	    jdbc.getConnection().rollback();
+	} finally {
+	    end();
+	}
+    }
+
+    /**
+     * @return unnamed savepoint
+     */
+    public Savepoint savepoint() throws SQLException {
+	checkActive();
+	return jdbc.getConnection().setSavepoint();
+    }
+
+    public Savepoint savepoint(String name) throws SQLException {
+	checkActive();
+	return jdbc.getConnection().setSavepoint(name);
+    }
+
+    /**
+     * Undo changes made after savepoint, transaction stays active.
+     */
+    public void rollback(Savepoint savepoint) throws SQLException {
+	checkActive();
+	jdbc.getConnection().rollback(savepoint);
+    }
+
+    public void release(Savepoint savepoint) throws SQLException {
+	checkActive();
+	jdbc.getConnection().releaseSavepoint(savepoint);
+    }
+
+    /**
+     * Roll back if transaction is still active.
+     */
+    public void close() throws SQLException {
+	if (!finished) {
+	    rollback();
+	}
+    }
+
+    private void checkActive() throws SQLException {
+	if (finished) {
+	    throw new SQLException("Transaction is already finished");
+	}
+    }
+
+    private void end() throws SQLException {
+	finished = true;
+	jdbc.endTransaction(this);
+	Connection connection = jdbc.getConnection();
+	try {
+	    if (isolation != null && isolation.level != previousIsolation) {
+		connection.setTransactionIsolation(previousIsolation);
+	    }
+	} catch (SQLException ex) {
+	    Logger.getLogger(getClass().getName()).log(Level.WARNING, ex.getMessage(), ex);
+	} finally {
+	    if (autoCommit) {
+		connection.setAutoCommit(true);
+	    }
+	}
+    }
+
+    @Override
+    public String toString() {
+	return "Transaction[" + (isolation != null ? isolation : "DEFAULT") + (finished ? ", finished]" : ", active]");
+    }
+}
@@ -0,0 +1,519 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind buffer for many small inserts into one table. insert() puts row
+ * into lock-free queue and returns immediately; background flusher writes
+ * queued rows as one batch with one commit (group commit) when maxRows rows
+ * are queued or oldest row waited maxDelay milliseconds.
+ * 
+ * <pre>
+ * WriteBehindBuffer buffer = new WriteBehindBuffer(pool, td, 500, 50, Durability.FLUSH_ON_COMMIT);
+ * buffer.insert(a, b, c);
+ * ...
+ * buffer.commit(); // rows inserted so far are committed
+ * buffer.close();
+ * </pre>
+ * 
+ * On write error whole batch is rolled back and all its rows fail, failures
+ * are logged and counted in every durability mode. If flusher thread dies
+ * (e.g. on Error), queued rows and pending commit() calls fail and buffer
+ * refuses new rows. Flusher keeps one connection borrowed from pool. Queue is unbounded, see
+ * getQueueDepth(). Rows don't take part in Transaction of caller's
+ * connection.
+ */
+public class WriteBehindBuffer implements AutoCloseable {
+
+    public static enum Durability {
+	/**
+	 * insert() returns null, write errors are logged and counted.
+	 */
+	FIRE_AND_FORGET,
+	/**
+	 * insert() returns null, commit() waits until queued rows are committed
+	 * and throws first write error since previous commit().
+	 */
+	FLUSH_ON_COMMIT,
+	/**
+	 * insert() returns future completed when row is committed (on flusher
+	 * thread).
+	 */
+	WAIT_FOR_FLUSH
+    }
+
+    private static final class Entry {
+	/**
+	 * null for commit() barrier
+	 */
+	final Object[] values;
+	final CompletableFuture<Void> future;
+	final long time = System.nanoTime();
+
+	Entry(Object[] values, CompletableFuture<Void> future) {
+	    this.values = values;
+	    this.future = future;
+	}
+    }
+
+    private final ConnectionPool pool;
+    private final TableDef tableDef;
+    private final int maxRows;
+    private final long maxDelayNanos;
+    private final Durability durability;
+
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger barriers = new AtomicInteger();
+    // threads inside insert() or commit(), flusher doesn't stop while any
+    private final AtomicInteger callers = new AtomicInteger();
+    private final Flusher flusher;
+    private volatile boolean closed;
+    private volatile SQLException failure;
+    // set when flusher thread died
+    private volatile SQLException flusherFailure;
+
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong rowCount = new AtomicLong();
+    private final AtomicLong failedRowCount = new AtomicLong();
+    private final LatencyHistogram flushTimes = new LatencyHistogram();
+    private final LatencyHistogram commitDelays = new LatencyHistogram();
+
+    Runnable flushListener;
+
+    /**
+     * Create buffer and start flusher thread.
+     * 
+     * @param pool
+     *            pool for flusher connection
+     * @param tableDef
+     *            table
+     * @param maxRows
+     *            flush when this many rows are queued (also max batch size)
+     * @param maxDelayMillis
+     *            flush when oldest queued row is older
+     * @param durability
+     *            see Durability
+     */
+    public WriteBehindBuffer(ConnectionPool pool, TableDef tableDef, int maxRows, long maxDelayMillis, Durability durability) {
+	if (maxRows <= 0) {
+	    throw new IllegalArgumentException("maxRows: " + maxRows);
+	}
+	if (maxDelayMillis <= 0) {
+	    throw new IllegalArgumentException("maxDelayMillis: " + maxDelayMillis);
+	}
+	this.pool = pool;
+	this.tableDef = tableDef;
+	this.maxRows = maxRows;
+	this.maxDelayNanos = maxDelayMillis * 1000000L;
+	this.durability = durability;
+	this.flusher = new Flusher();
+	flusher.start();
+    }
+
+    /**
+     * Queue row.
+     * 
+     * @param values
+     *            values for all columns except auto increment columns
+     * @return future completed when row is committed if durability is
+     *         WAIT_FOR_FLUSH, null otherwise
+     * @throws SQLException
+     *             if buffer is closed, flusher died or values don't match
+     *             table
+     */
+    public CompletableFuture<Void> insert(Object... values) throws SQLException {
+	if (values.length != tableDef.getColumnsLengthForInsert()) {
+	    throw new SQLException("Expected " + tableDef.getColumnsLengthForInsert() + " values, got " + values.length);
+	}
+	CompletableFuture<Void> future = durability == Durability.WAIT_FOR_FLUSH ? new CompletableFuture<Void>() : null;
+	callers.incrementAndGet();
+	try {
+	    checkOpen();
+	    queue.offer(new Entry(values, future));
+	} finally {
+	    callers.decrementAndGet();
+	}
+	int d = depth.incrementAndGet();
+	int max = maxDepth.get();
+	while (d > max && !maxDepth.compareAndSet(max, d)) {
+	    max = maxDepth.get();
+	}
+	if (d == maxRows) {
+	    LockSupport.unpark(flusher);
+	}
+	return future;
+    }
+
+    /**
+     * Flush rows queued so far (by any thread) and wait until they are
+     * committed.
+     * 
+     * @throws SQLException
+     *             first write error since previous commit() (only if
+     *             durability is FLUSH_ON_COMMIT), if buffer is closed or
+     *             flusher died
+     */
+    public void commit() throws SQLException {
+	CompletableFuture<Void> future = new CompletableFuture<Void>();
+	callers.incrementAndGet();
+	try {
+	    checkOpen();
+	    barriers.incrementAndGet();
+	    queue.offer(new Entry(null, future));
+	} finally {
+	    callers.decrementAndGet();
+	}
+	LockSupport.unpark(flusher);
+	try {
+	    future.get();
+	} catch (InterruptedException ex) {
+	    Thread.currentThread().interrupt();
+	    throw new SQLException("Interrupted", ex);
+	} catch (ExecutionException ex) {
+	    throw toSQLException(ex.getCause());
+	}
+    }
+
+    private void checkOpen() throws SQLException {
+	if (closed) {
+	    throw new SQLException("WriteBehindBuffer is closed");
+	}
+	SQLException ex = flusherFailure;
+	if (ex != null) {
+	    throw new SQLException(ex.getMessage(), ex);
+	}
+    }
+
+    /**
+     * Write remaining rows and stop flusher thread.
+     * 
+     * @throws SQLException
+     *             if flusher died or first write error since previous
+     *             commit() if durability is FLUSH_ON_COMMIT
+     */
+    public void close() throws SQLException {
+	synchronized (this) {
+	    if (closed) {
+		return;
+	    }
+	    closed = true;
+	}
+	LockSupport.unpark(flusher);
+	try {
+	    flusher.join();
+	} catch (InterruptedException ex) {
+	    Thread.currentThread().interrupt();
+	    throw new SQLException("Interrupted", ex);
+	}
+	if (flusherFailure != null) {
+	    throw new SQLException(flusherFailure.getMessage(), flusherFailure);
+	}
+	SQLException ex = failure;
+	failure = null;
+	if (ex != null && durability == Durability.FLUSH_ON_COMMIT) {
+	    throw ex;
+	}
+    }
+
+    public boolean isClosed() {
+	return closed;
+    }
+
+    /**
+     * @return cause of flusher thread death or null if flusher is alive (or
+     *         stopped by close())
+     */
+    public SQLException getFlusherFailure() {
+	return flusherFailure;
+    }
+
+    public TableDef getTableDef() {
+	return tableDef;
+    }
+
+    public Durability getDurability() {
+	return durability;
+    }
+
+    /**
+     * @return number of rows waiting in queue
+     */
+    public int getQueueDepth() {
+	return depth.get();
+    }
+
+    public int getMaxQueueDepth() {
+	return maxDepth.get();
+    }
+
+    public long getFlushCount() {
+	return flushCount.get();
+    }
+
+    /**
+     * @return number of committed rows
+     */
+    public long getRowCount() {
+	return rowCount.get();
+    }
+
+    public long getFailedRowCount() {
+	return failedRowCount.get();
+    }
+
+    /**
+     * @return database time per flush (batch and commit) in nanoseconds
+     */
+    public LatencyHistogram getFlushTimes() {
+	return flushTimes;
+    }
+
+    /**
+     * @return time from insert() of oldest row in flush to commit in
+     *         nanoseconds
+     */
+    public LatencyHistogram getCommitDelays() {
+	return commitDelays;
+    }
+
+    @Override
+    public String toString() {
+	return "WriteBehindBuffer[" + tableDef.tableName + ", " + durability + ", depth=" + getQueueDepth() + ", maxDepth=" + getMaxQueueDepth() + ", rows="
+		+ getRowCount() + ", failed=" + getFailedRowCount() + ", flushes=" + getFlushCount() + ", flush p99="
+		+ flushTimes.getPercentile(99) / 1000 + "us, delay p99=" + commitDelays.getPercentile(99) / 1000 + "us]";
+    }
+
+    private static SQLException toSQLException(Throwable t) {
+	if (t instanceof SQLException) {
+	    return (SQLException) t;
+	}
+	return new SQLException(t);
+    }
+
+    private class Flusher extends Thread {
+	private JavaDB_Connection jdbc;
+
+	Flusher() {
+	    super("WriteBehind-" + tableDef.tableName);
+	    setDaemon(true);
+	}
+
+	@Override
+	public void run() {
+	    try {
+		while (true) {
+		    Entry head = queue.peek();
+		    if (head == null) {
+			if (closed) {
+			    if (callers.get() == 0 && queue.isEmpty()) {
+				break;
+			    }
+			    Thread.yield();
+			} else {
+			    LockSupport.parkNanos(this, maxDelayNanos);
+			}
+			continue;
+		    }
+		    long wait = head.time + maxDelayNanos - System.nanoTime();
+		    if (wait > 0 && depth.get() < maxRows && barriers.get() == 0 && !closed) {
+			LockSupport.parkNanos(this, wait);
+			continue;
+		    }
+		    flush();
+		}
+	    } catch (Throwable t) {
+		die(t);
+	    } finally {
+		release();
+	    }
+	}
+
+	/**
+	 * Fail queued rows and commit() calls, also those of callers which
+	 * passed checkOpen() before flusherFailure was set.
+	 */
+	private void die(Throwable t) {
+	    SQLException ex = new SQLException(getName() + " died: " + t, t);
+	    flusherFailure = ex;
+	    Logger.getLogger(getClass().getName()).log(Level.SEVERE, ex.getMessage(), t);
+	    int lost = 0;
+	    while (callers.get() > 0 || !queue.isEmpty()) {
+		Entry e = queue.poll();
+		if (e == null) {
+		    Thread.yield();
+		    continue;
+		}
+		if (e.values == null) {
+		    barriers.decrementAndGet();
+		} else {
+		    depth.decrementAndGet();
+		    lost++;
+		}
+		if (e.future != null) {
+		    e.future.completeExceptionally(ex);
+		}
+	    }
+	    failedRowCount.addAndGet(lost);
+	}
+
+	private void flush() {
+	    ArrayList<Entry> rows = new ArrayList<Entry>(Math.min(maxRows, Math.max(depth.get(), 1)));
+	    Entry barrier = null;
+	    Entry e;
+	    while (rows.size() < maxRows && (e = queue.poll()) != null) {
+		if (e.values == null) {
+		    barrier = e;
+		    break;
+		}
+		depth.decrementAndGet();
+		rows.add(e);
+	    }
+	    boolean written = false;
+	    try {
+		if (!rows.isEmpty()) {
+		    write(rows);
+		}
+		written = true;
+	    } finally {
+		if (barrier != null) {
+		    barriers.decrementAndGet();
+		    SQLException ex = null;
+		    if (!written) {
+			ex = new SQLException(getName() + " failed");
+		    } else if (durability == Durability.FLUSH_ON_COMMIT) {
+			ex = failure;
+			failure = null;
+		    }
+		    if (ex != null) {
+			barrier.future.completeExceptionally(ex);
+		    } else {
+			barrier.future.complete(null);
+		    }
+		}
+	    }
+	}
+
+	private void write(ArrayList<Entry> rows) {
+	    long start = System.nanoTime();
+	    BatchWriter writer = null;
+	    try {
+		if (jdbc == null) {
+		    jdbc = pool.borrow();
+		}
+		writer = jdbc.createBatchWriter(tableDef, rows.size(), false);
+		for (Entry e : rows) {
+		    writer.add(e.values);
+		}
+		writer.close();
+		writer = null;
+	    } catch (SQLException ex) {
+		failed(rows, writer, ex);
+		return;
+	    } catch (RuntimeException ex) {
+		failed(rows, writer, new SQLException(ex));
+		return;
+	    } catch (Error err) {
+		// rows are lost, flusher dies
+		failed(rows, writer, new SQLException(err));
+		throw err;
+	    }
+	    long end = System.nanoTime();
+	    flushCount.incrementAndGet();
+	    rowCount.addAndGet(rows.size());
+	    flushTimes.record(end - start);
+	    commitDelays.record(end - rows.get(0).time);
+	    try {
+		if (flushListener != null) {
+		    try {
+			flushListener.run();
+		    } catch (RuntimeException ex) {
+			// rows are committed, listener error must not stop flusher
+			Logger.getLogger(getClass().getName()).log(Level.WARNING, getName() + ": flush listener failed", ex);
+		    }
+		}
+	    } finally {
+		for (Entry e : rows) {
+		    if (e.future != null) {
+			e.future.complete(null);
+		    }
+		}
+	    }
+	}
+
+	private void failed(ArrayList<Entry> rows, BatchWriter writer, SQLException ex) {
+	    if (writer != null) {
+		try {
+		    writer.abort();
+		} catch (SQLException ex1) {
+		    ex.setNextException(ex1);
+		}
+	    }
+	    // connection may be broken, take another one for next flush
+	    release();
+	    failedRowCount.addAndGet(rows.size());
+	    Logger.getLogger(getClass().getName()).log(Level.WARNING, getName() + ": " + rows.size() + " rows failed: " + ex.getMessage(), ex);
+	    switch (durability) {
+	    case FIRE_AND_FORGET:
+		break;
+	    case FLUSH_ON_COMMIT:
+		if (failure == null) {
+		    failure = ex;
+		}
+		break;
+	    case WAIT_FOR_FLUSH:
+		for (Entry e : rows) {
+		    e.future.completeExceptionally(ex);
+		}
+		break;
+	    }
+	}
+
+	private void release() {
+	    if (jdbc != null) {
+		pool.release(jdbc);
+		jdbc = null;
+	    }
+	}
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Minimal benchmark harness: warmup and measurement iterations of fixed
+ * duration, reports throughput (ops/s), time per operation, allocated bytes
+ * per operation and GC activity. Results can be saved as CSV and compared
+ * with a previous run.
+ */
+public class BenchmarkRunner {
+
+    /**
+     * Benchmarked operation. Return value is accumulated to prevent dead code
+     * elimination.
+     */
+    public interface Operation {
+	long run() throws Exception;
+    }
+
+    /**
+     * Result of one benchmark. bytesPerOp counts only allocations of the
+     * thread which called run(), work done by pool, loader or flusher threads
+     * is not included. gcCount and gcTime are JVM wide and include
+     * collections caused by any thread.
+     */
+    public static class Score {
+	public final String name;
+	public final double opsPerSecond;
+	public final double nanosPerOp;
+	public final double bytesPerOp;
+	public final long gcCount;
+	public final long gcTime;
+
+	Score(String name, double opsPerSecond, double nanosPerOp, double bytesPerOp, long gcCount, long gcTime) {
+	    this.name = name;
+	    this.opsPerSecond = opsPerSecond;
+	    this.nanosPerOp = nanosPerOp;
+	    this.bytesPerOp = bytesPerOp;
+	    this.gcCount = gcCount;
+	    this.gcTime = gcTime;
+	}
+
+	@Override
+	public String toString() {
+	    return String.format(Locale.ROOT, "%-28s %14.1f ops/s %12.1f ns/op %12.1f B/op %5d GCs (%d ms)", name, opsPerSecond, nanosPerOp,
+		    bytesPerOp, gcCount, gcTime);
+	}
+    }
+
+    private int warmupIterations = 3;
+    private int measureIterations = 5;
+    private long iterationMillis = 1000;
+
+    private final List<Score> scores = new ArrayList<Score>();
+    private long blackhole;
+
+    public BenchmarkRunner() {
+    }
+
+    public BenchmarkRunner(int warmupIterations, int measureIterations, long iterationMillis) {
+	this.warmupIterations = warmupIterations;
+	this.measureIterations = measureIterations;
+	this.iterationMillis = iterationMillis;
+    }
+
+    public Score run(String name, Operation op) throws Exception {
+	for (int i = 0; i < warmupIterations; i++) {
+	    iteration(op);
+	}
+	ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	long gcCount = gcCount();
+	long gcTime = gcTime();
+	long bytes = allocatedBytes(threads);
+	long ops = 0;
+	long time = 0;
+	for (int i = 0; i < measureIterations; i++) {
+	    long start = System.nanoTime();
+	    ops += iteration(op);
+	    time += System.nanoTime() - start;
+	}
+	bytes = allocatedBytes(threads) - bytes;
+	Score score = new Score(name, ops * 1e9 / time, (double) time / ops, (double) bytes / ops, gcCount() - gcCount, gcTime() - gcTime);
+	scores.add(score);
+	System.out.println(score);
+	return score;
+    }
+
+    private long iteration(Operation op) throws Exception {
+	long end = System.nanoTime() + iterationMillis * 1000000L;
+	long ops = 0;
+	long sum = 0;
+	do {
+	    sum += op.run();
+	    ops++;
+	} while (System.nanoTime() < end);
+	blackhole += sum;
+	return ops;
+    }
+
+    public List<Score> getScores() {
+	return scores;
+    }
+
+    public long getBlackhole() {
+	return blackhole;
+    }
+
+    /**
+     * Write scores as CSV (name, ops/s, ns/op, B/op).
+     */
+    public void save(Path file) throws IOException {
+	PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+	try {
+	    out.println("name,opsPerSecond,nanosPerOp,bytesPerOp");
+	    for (Score s : scores) {
+		out.println(String.format(Locale.ROOT, "%s,%.1f,%.1f,%.1f", s.name, s.opsPerSecond, s.nanosPerOp, s.bytesPerOp));
+	    }
+	} finally {
+	    out.close();
+	}
+    }
+
+    /**
+     * Compare scores with baseline saved by save(Path) and print benchmarks
+     * where throughput dropped or allocation grew by more than tolerance.
+     * 
+     * @param tolerance
+     *            relative tolerance, for example 0.1 for 10%
+     * @return number of regressions
+     */
+    public int compare(Path baseline, double tolerance) throws IOException {
+	Map<String, double[]> base = new HashMap<String, double[]>();
+	BufferedReader in = Files.newBufferedReader(baseline, StandardCharsets.UTF_8);
+	try {
+	    String line = in.readLine();
+	    while ((line = in.readLine()) != null) {
+		String[] s = line.split(",");
+		if (s.length == 4) {
+		    base.put(s[0], new double[] { Double.parseDouble(s[1]), Double.parseDouble(s[3]) });
+		}
+	    }
+	} finally {
+	    in.close();
+	}
+	int regressions = 0;
+	for (Score s : scores) {
+	    double[] b = base.get(s.name);
+	    if (b == null) {
+		continue;
+	    }
+	    if (s.opsPerSecond < b[0] * (1 - tolerance)) {
+		System.out.println(String.format(Locale.ROOT, "REGRESSION %s: throughput %.1f -> %.1f ops/s", s.name, b[0], s.opsPerSecond));
+		regressions++;
+	    }
+	    if (s.bytesPerOp > b[1] * (1 + tolerance) + 16) {
+		System.out.println(String.format(Locale.ROOT, "REGRESSION %s: allocation %.1f -> %.1f B/op", s.name, b[1], s.bytesPerOp));
+		regressions++;
+	    }
+	}
+	return regressions;
+    }
+
+    /**
+     * @return bytes allocated so far by current thread, 0 if JVM can't tell
+     */
+    public static long allocatedBytes(ThreadMXBean threads) {
+	if (threads instanceof com.sun.management.ThreadMXBean) {
+	    return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	return 0;
+    }
+
+    public static long gcCount() {
+	long count = 0;
+	for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+	    count += Math.max(0, gc.getCollectionCount());
+	}
+	return count;
+    }
+
+    public static long gcTime() {
+	long time = 0;
+	for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+	    time += Math.max(0, gc.getCollectionTime());
+	}
+	return time;
+    }
+}
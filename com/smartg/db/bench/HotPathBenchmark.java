@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db.bench;
+
+import java.lang.reflect.Field;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+import com.smartg.db.BatchWriter;
+import com.smartg.db.Column.ColumnType;
+import com.smartg.db.ColumnBuilder;
+import com.smartg.db.ConnectionFactory;
+import com.smartg.db.DB_TableManager;
+import com.smartg.db.JavaDB_Connection;
+import com.smartg.db.Result;
+import com.smartg.db.TableDef;
+import com.smartg.db.UserDefinedType;
+
+/**
+ * Benchmarks for insert, single key select, Result iteration, count and
+ * TableDef statement generation on embedded in-memory Derby.
+ * 
+ * Usage: HotPathBenchmark [-rows n] [-time ms] [-o results.csv] [-baseline
+ * results.csv]
+ * 
+ * With -baseline the exit code is the number of detected regressions.
+ */
+public class HotPathBenchmark extends DB_TableManager {
+
+    TableDef person = new TableDef("BENCH_PERSON", new ColumnBuilder().add("ID", ColumnType.INTEGER, true).add("NAME", ColumnType.VARCHAR, 40)
+	    .add("AGE", ColumnType.INTEGER).add("SCORE", ColumnType.DOUBLE).getColumns());
+    TableDef log = new TableDef("BENCH_LOG", new ColumnBuilder().add("ID", ColumnType.INTEGER).add("MESSAGE", ColumnType.VARCHAR, 40).getColumns());
+
+    {
+	person.addConditionColumns(0);
+    }
+
+    private int rows;
+    private int key;
+    private int logId;
+
+    HotPathBenchmark(int rows) throws SQLException {
+	this.rows = rows;
+	jdbc = new JavaDB_Connection(ConnectionFactory.getEmbeddedConnection(null, null, "memory:hotPathBench", null, true));
+	jdbc.dropTable(person.tableName);
+	jdbc.dropTable(log.tableName);
+	dbInit();
+	BatchWriter writer = createBatchWriter(person, 1000, false);
+	for (int i = 0; i < rows; i++) {
+	    writer.add(i, "person" + i, i % 90, i * 0.25);
+	}
+	writer.close();
+    }
+
+    @Override
+    protected TableDef getTD(Field f) throws IllegalArgumentException, IllegalAccessException {
+	return (TableDef) f.get(this);
+    }
+
+    @Override
+    protected UserDefinedType getUDT(Field f) throws IllegalArgumentException, IllegalAccessException {
+	return (UserDefinedType) f.get(this);
+    }
+
+    long insert() throws SQLException {
+	insert(log, logId++, "message");
+	return 1;
+    }
+
+    long selectByKey() throws SQLException {
+	key = (key + 7919) % rows;
+	select(person, 0, key);
+	return drain(jdbc.getResult(person.getSelectHandle(0)));
+    }
+
+    long scanEnumeration() throws SQLException {
+	select(person);
+	Result result = jdbc.getResult(person.getSelectHandle());
+	long sum = 0;
+	while (result.hasMoreElements()) {
+	    ArrayList<Object> row = result.nextElement();
+	    sum += ((Integer) row.get(0)).intValue();
+	}
+	result.close();
+	return sum;
+    }
+
+    long scanCursor() throws SQLException {
+	select(person);
+	Result result = jdbc.getResult(person.getSelectHandle());
+	long sum = 0;
+	while (result.moveNext()) {
+	    sum += result.getInt(0);
+	}
+	result.close();
+	return sum;
+    }
+
+    long count() throws SQLException {
+	count(person);
+	return drain(jdbc.getResult(person.getCountHandle()));
+    }
+
+    long statementGeneration() {
+	return person.getSelectStatementName(0).length() + person.getCountStatementName(0).length()
+		+ person.getPreparedSelectStatement(0).length() + person.getPreparedCountStatement(0).length()
+		+ person.getInsertStatementName().length() + person.getPreparedInsertStatement().length();
+    }
+
+    private static long drain(Result result) throws SQLException {
+	long sum = 0;
+	while (result.moveNext()) {
+	    sum += result.getLong(0);
+	}
+	result.close();
+	return sum;
+    }
+
+    public static void main(String[] args) throws Exception {
+	int rows = 10000;
+	long time = 1000;
+	String output = null;
+	String baseline = null;
+	for (int i = 0; i < args.length - 1; i += 2) {
+	    if ("-rows".equals(args[i])) {
+		rows = Integer.parseInt(args[i + 1]);
+	    } else if ("-time".equals(args[i])) {
+		time = Long.parseLong(args[i + 1]);
+	    } else if ("-o".equals(args[i])) {
+		output = args[i + 1];
+	    } else if ("-baseline".equals(args[i])) {
+		baseline = args[i + 1];
+	    }
+	}
+
+	final HotPathBenchmark b = new HotPathBenchmark(rows);
+	BenchmarkRunner runner = new BenchmarkRunner(3, 5, time);
+	runner.run("insert", new BenchmarkRunner.Operation() {
+	    public long run() throws Exception {
+		return b.insert();
+	    }
+	});
+	runner.run("selectByKey", new BenchmarkRunner.Operation() {
+	    public long run() throws Exception {
+		return b.selectByKey();
+	    }
+	});
+	runner.run("scanEnumeration", new BenchmarkRunner.Operation() {
+	    public long run() throws Exception {
+		return b.scanEnumeration();
+	    }
+	});
+	runner.run("scanCursor", new BenchmarkRunner.Operation() {
+	    public long run() throws Exception {
+		return b.scanCursor();
+	    }
+	});
+	runner.run("count", new BenchmarkRunner.Operation() {
+	    public long run() throws Exception {
+		return b.count();
+	    }
+	});
+	runner.run("statementGeneration", new BenchmarkRunner.Operation() {
+	    public long run() throws Exception {
+		return b.statementGeneration();
+	    }
+	});
+	b.jdbc.closeConnection();
+
+	if (output != null) {
+	    runner.save(Paths.get(output));
+	}
+	if (baseline != null) {
+	    System.exit(runner.compare(Paths.get(baseline), 0.1));
+	}
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+import com.smartg.db.BatchWriter;
+import com.smartg.db.Column.ColumnType;
+import com.smartg.db.ColumnBuilder;
+import com.smartg.db.ConnectionFactory;
+import com.smartg.db.JavaDB_Connection;
+import com.smartg.db.Result;
+import com.smartg.db.TableDef;
+
+/**
+ * Compares allocation and GC activity of Result.nextElement() with cursor
+ * mode (Result.moveNext() and typed getters).
+ * 
+ * Usage: ResultScanBenchmark [rows]
+ */
+public class ResultScanBenchmark {
+
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = 5;
+
+    public static void main(String[] args) throws SQLException {
+	int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+	JavaDB_Connection jdbc = new JavaDB_Connection(ConnectionFactory.getEmbeddedConnection(null, null, "memory:scanBench", null, true));
+	TableDef td = new TableDef("SCAN_BENCH", new ColumnBuilder().add("I", ColumnType.INTEGER).add("L", ColumnType.BIGINT)
+		.add("D", ColumnType.DOUBLE).add("S", ColumnType.VARCHAR, 20).getColumns());
+	jdbc.dropTable(td.tableName);
+	jdbc.createTable(td);
+	BatchWriter writer = jdbc.createBatchWriter(td, 1000, false);
+	for (int i = 0; i < rows; i++) {
+	    writer.add(i, (long) i * 31, i * 0.5, "row" + (i % 1000));
+	}
+	writer.close();
+	jdbc.prepareStatement("scan", td.getPreparedSelectStatement());
+
+	for (int i = 0; i < WARMUP; i++) {
+	    scanEnumeration(jdbc);
+	    scanCursor(jdbc);
+	}
+	measure("nextElement", jdbc, false);
+	measure("cursor", jdbc, true);
+	jdbc.closeConnection();
+    }
+
+    private static void measure(String name, JavaDB_Connection jdbc, boolean cursor) throws SQLException {
+	ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	long gcCount = BenchmarkRunner.gcCount();
+	long gcTime = BenchmarkRunner.gcTime();
+	long bytes = BenchmarkRunner.allocatedBytes(threads);
+	long start = System.nanoTime();
+	long check = 0;
+	for (int i = 0; i < ITERATIONS; i++) {
+	    check += cursor ? scanCursor(jdbc) : scanEnumeration(jdbc);
+	}
+	long time = System.nanoTime() - start;
+	bytes = BenchmarkRunner.allocatedBytes(threads) - bytes;
+	System.out.println(name + ": " + (time / ITERATIONS / 1000000) + " ms/scan, " + (bytes / ITERATIONS / 1024) + " KB allocated/scan, "
+		+ (BenchmarkRunner.gcCount() - gcCount) + " GCs (" + (BenchmarkRunner.gcTime() - gcTime) + " ms), check=" + check);
+    }
+
+    private static long scanEnumeration(JavaDB_Connection jdbc) throws SQLException {
+	jdbc.execute2("scan");
+	Result result = jdbc.getResult("scan");
+	long sum = 0;
+	while (result.hasMoreElements()) {
+	    ArrayList<Object> row = result.nextElement();
+	    sum += ((Integer) row.get(0)).intValue() + ((Long) row.get(1)).longValue() + (long) ((Double) row.get(2)).doubleValue();
+	}
+	result.close();
+	return sum;
+    }
+
+    private static long scanCursor(JavaDB_Connection jdbc) throws SQLException {
+	jdbc.execute2("scan");
+	Result result = jdbc.getResult("scan");
+	long sum = 0;
+	while (result.moveNext()) {
+	    sum += result.getInt(0) + result.getLong(1) + (long) result.getDouble(2);
+	}
+	result.close();
+	return sum;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates SchemaRegistry for every DB_TableManager subclass annotated with
+ * com.smartg.db.Schema. Generated class &lt;Class&gt;_SchemaRegistry (nested
+ * class names are joined with '_') is placed in package of annotated class and
+ * reads TableDef and UserDefinedType fields directly.
+ * 
+ * Registered in META-INF/services/javax.annotation.processing.Processor.
+ */
+@SupportedAnnotationTypes("com.smartg.db.Schema")
+public class SchemaProcessor extends AbstractProcessor {
+
+    private static final String TABLE_DEF = "com.smartg.db.TableDef";
+    private static final String USER_DEFINED_TYPE = "com.smartg.db.UserDefinedType";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+	return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+	for (TypeElement annotation : annotations) {
+	    for (Element e : roundEnv.getElementsAnnotatedWith(annotation)) {
+		if (e.getKind() != ElementKind.CLASS) {
+		    error(e, "@Schema can be used only on classes");
+		    continue;
+		}
+		try {
+		    generate((TypeElement) e);
+		} catch (IOException ex) {
+		    error(e, "Can't generate schema registry: " + ex.getMessage());
+		}
+	    }
+	}
+	return true;
+    }
+
+    private void generate(TypeElement type) throws IOException {
+	List<String> tables = new ArrayList<String>();
+	List<String> types = new ArrayList<String>();
+	for (Element e : type.getEnclosedElements()) {
+	    if (e.getKind() != ElementKind.FIELD || e.getModifiers().contains(Modifier.STATIC)) {
+		continue;
+	    }
+	    String fieldType = e.asType().toString();
+	    boolean table = TABLE_DEF.equals(fieldType);
+	    if (!table && !USER_DEFINED_TYPE.equals(fieldType)) {
+		continue;
+	    }
+	    if (e.getModifiers().contains(Modifier.PRIVATE)) {
+		error(e, "Field must not be private: " + e.getSimpleName());
+		continue;
+	    }
+	    (table ? tables : types).add(((VariableElement) e).getSimpleName().toString());
+	}
+
+	PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+	String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+	String className = registryName(type);
+	String managerName = type.getQualifiedName().toString();
+	String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+
+	JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+	PrintWriter out = new PrintWriter(file.openWriter());
+	try {
+	    if (!packageName.isEmpty()) {
+		out.println("package " + packageName + ";");
+		out.println();
+	    }
+	    out.println("import java.util.Arrays;");
+	    out.println("import java.util.Collections;");
+	    out.println("import java.util.List;");
+	    out.println();
+	    out.println("import com.smartg.db.SchemaRegistry;");
+	    out.println("import com.smartg.db.TableDef;");
+	    out.println("import com.smartg.db.UserDefinedType;");
+	    out.println();
+	    out.println("/**");
+	    out.println(" * Generated by " + SchemaProcessor.class.getName() + " for " + managerName + ", do not edit.");
+	    out.println(" */");
+	    out.println("public final class " + className + " implements SchemaRegistry<" + managerName + "> {");
+	    out.println();
+	    writeGetter(out, "TableDef", "getTables", managerName, tables);
+	    out.println();
+	    writeGetter(out, "UserDefinedType", "getTypes", managerName, types);
+	    out.println("}");
+	} finally {
+	    out.close();
+	}
+    }
+
+    private static void writeGetter(PrintWriter out, String type, String method, String managerName, List<String> fields) {
+	out.println("    public List<" + type + "> " + method + "(" + managerName + " manager) {");
+	if (fields.isEmpty()) {
+	    out.println("        return Collections.<" + type + "> emptyList();");
+	} else {
+	    StringBuilder sb = new StringBuilder();
+	    for (String f : fields) {
+		if (sb.length() > 0) {
+		    sb.append(", ");
+		}
+		sb.append("manager.").append(f);
+	    }
+	    out.println("        return Arrays.<" + type + "> asList(" + sb + ");");
+	}
+	out.println("    }");
+    }
+
+    /**
+     * Outer.Inner -> Outer_Inner_SchemaRegistry (same as binary name with
+     * '$' replaced by '_').
+     */
+    static String registryName(TypeElement type) {
+	String name = type.getSimpleName().toString();
+	Element e = type.getEnclosingElement();
+	while (e instanceof TypeElement) {
+	    name = e.getSimpleName() + "_" + name;
+	    e = e.getEnclosingElement();
+	}
+	return name + "_SchemaRegistry";
+    }
+
+    private void error(Element e, String message) {
+	processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, e);
+    }
+}
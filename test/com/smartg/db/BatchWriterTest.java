@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.smartg.db.Column.ColumnType;
+
+/**
+ * BatchWriter on embedded in-memory Derby while other threads use the same
+ * connection: rows and generated keys of writer must not get mixed with
+ * statements of other threads.
+ * 
+ * Usage: BatchWriterTest, exit code is the number of failed checks.
+ */
+public class BatchWriterTest {
+
+    private static final int ROWS = 5000;
+    private static final int OTHER_ROWS = 2000;
+
+    private final JavaDB_Connection jdbc;
+    private final TableDef keysTable = new TableDef("BW_KEYS", new ColumnBuilder().add("ID", ColumnType.BIGINT_ID).add("N", ColumnType.INTEGER)
+	    .getColumns());
+    private final TableDef rowsTable = new TableDef("BW_ROWS", new ColumnBuilder().add("N", ColumnType.INTEGER).getColumns());
+    // identity column, Derby reports last identity value of connection as
+    // generated key
+    private final TableDef otherTable = new TableDef("BW_OTHER", new ColumnBuilder().add("ID", ColumnType.BIGINT_ID).add("N", ColumnType.INTEGER)
+	    .getColumns());
+    private final ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<Throwable>();
+    private int failures;
+
+    BatchWriterTest() throws SQLException {
+	jdbc = new JavaDB_Connection(DriverManager.getConnection("jdbc:derby:memory:batchWriterTest;create=true"));
+	jdbc.createTable(keysTable);
+	jdbc.createTable(rowsTable);
+	jdbc.createTable(otherTable);
+	jdbc.prepareStatement("BW_INSERT_OTHER", "INSERT INTO BW_OTHER (N) VALUES (?)");
+	jdbc.prepareStatement("BW_SELECT_OTHER", "SELECT N FROM BW_OTHER");
+	jdbc.prepareStatement("BW_SELECT_KEYS", "SELECT ID, N FROM BW_KEYS");
+	jdbc.prepareStatement("BW_COUNT_ROWS", "SELECT COUNT(*) FROM BW_ROWS");
+	jdbc.prepareStatement("BW_COUNT_OTHER", "SELECT COUNT(*) FROM BW_OTHER");
+    }
+
+    private void check(boolean condition, String message) {
+	if (!condition) {
+	    failures++;
+	    System.err.println("FAILED: " + message);
+	}
+    }
+
+    private Thread start(final Runnable task) {
+	Thread t = new Thread(new Runnable() {
+	    public void run() {
+		try {
+		    task.run();
+		} catch (Throwable ex) {
+		    errors.add(ex);
+		}
+	    }
+	});
+	t.start();
+	return t;
+    }
+
+    private long count(String statement) throws SQLException {
+	return ((Number) jdbc.query(statement).get(0).get(0)).longValue();
+    }
+
+    /**
+     * Key writer and then multi-row writer, while other threads execute
+     * statements and stream rows on the same connection. Writers run one
+     * after other, since each of them switches auto-commit of connection.
+     */
+    void contention() throws Exception {
+	final long[][] keys = new long[1][];
+	Thread keyWriter = start(new Runnable() {
+	    public void run() {
+		try {
+		    BatchWriter writer = jdbc.createInsertKeysWriter(keysTable, 100);
+		    for (int i = 0; i < ROWS; i++) {
+			writer.add(Integer.valueOf(i));
+		    }
+		    writer.close();
+		    keys[0] = writer.getGeneratedKeys();
+		} catch (SQLException ex) {
+		    throw new IllegalStateException(ex);
+		}
+	    }
+	});
+	Thread executes = start(new Runnable() {
+	    public void run() {
+		try {
+		    for (int i = 0; i < OTHER_ROWS; i++) {
+			jdbc.execute("BW_INSERT_OTHER", i);
+		    }
+		} catch (SQLException ex) {
+		    throw new IllegalStateException(ex);
+		}
+	    }
+	});
+	Thread reads = start(new Runnable() {
+	    public void run() {
+		try {
+		    for (int i = 0; i < 50; i++) {
+			jdbc.stream("BW_SELECT_OTHER", 10).count();
+		    }
+		} catch (SQLException ex) {
+		    throw new IllegalStateException(ex);
+		}
+	    }
+	});
+	keyWriter.join();
+	Thread rowWriter = start(new Runnable() {
+	    public void run() {
+		try {
+		    BatchWriter writer = jdbc.createBatchWriter(rowsTable, 100, true);
+		    for (int i = 0; i < ROWS; i++) {
+			writer.add(Integer.valueOf(i));
+		    }
+		    writer.close();
+		} catch (SQLException ex) {
+		    throw new IllegalStateException(ex);
+		}
+	    }
+	});
+	rowWriter.join();
+	executes.join();
+	reads.join();
+
+	for (Throwable ex : errors) {
+	    ex.printStackTrace();
+	}
+	check(errors.isEmpty(), "no errors in threads");
+	check(keys[0] != null && keys[0].length == ROWS, "one key per row");
+	if (keys[0] != null) {
+	    HashMap<Long, Integer> rows = new HashMap<Long, Integer>();
+	    for (Row row : jdbc.query("BW_SELECT_KEYS")) {
+		rows.put(Long.valueOf(((Number) row.get(0)).longValue()), Integer.valueOf(((Number) row.get(1)).intValue()));
+	    }
+	    boolean match = rows.size() == ROWS;
+	    for (int i = 0; i < keys[0].length && match; i++) {
+		match = Integer.valueOf(i).equals(rows.get(Long.valueOf(keys[0][i])));
+	    }
+	    check(match, "generated keys match written rows");
+	}
+	check(count("BW_COUNT_ROWS") == ROWS, "all rows of multi-row writer written");
+	check(count("BW_COUNT_OTHER") == OTHER_ROWS, "all rows of other thread written");
+	check(jdbc.getConnection().getAutoCommit(), "auto-commit restored");
+    }
+
+    public static void main(String[] args) throws Exception {
+	BatchWriterTest test = new BatchWriterTest();
+	test.contention();
+	test.jdbc.closeConnection();
+	System.out.println(test.failures == 0 ? "OK" : test.failures + " checks failed");
+	System.exit(test.failures);
+    }
+}
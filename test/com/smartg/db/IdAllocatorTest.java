@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.smartg.db.Column.ColumnType;
+
+/**
+ * IdAllocator on embedded in-memory Derby: unique ids from several threads
+ * and allocators sharing one sequence, and rejected block size mismatch.
+ * 
+ * Usage: IdAllocatorTest, exit code is the number of failed checks.
+ */
+public class IdAllocatorTest {
+
+    private static final int BLOCK_SIZE = 10;
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 2000;
+
+    private final ConnectionPool pool = ConnectionFactory.getEmbeddedConnectionPool(null, null, "memory:idAllocatorTest", null, true, 2);
+    private final TableDef tableDef = new TableDef("ID_TEST", new ColumnBuilder().add("ID", ColumnType.BIGINT_SEQ, BLOCK_SIZE)
+	    .add("NAME", ColumnType.VARCHAR, 10).getColumns());
+    private int failures;
+
+    IdAllocatorTest() throws SQLException {
+	JavaDB_Connection jdbc = pool.borrow();
+	try {
+	    jdbc.createTable(tableDef);
+	} finally {
+	    pool.release(jdbc);
+	}
+    }
+
+    private void check(boolean condition, String message) {
+	if (!condition) {
+	    failures++;
+	    System.err.println("FAILED: " + message);
+	}
+    }
+
+    /**
+     * Two allocators (two clients on own connections) used by several threads
+     * each.
+     */
+    void concurrentUniqueness() throws Exception {
+	JavaDB_Connection first = pool.borrow();
+	JavaDB_Connection second = pool.borrow();
+	try {
+	    final IdAllocator[] allocators = { new IdAllocator(first, tableDef, 0), new IdAllocator(second, tableDef, 0) };
+	    final Set<Long> ids = ConcurrentHashMap.newKeySet();
+	    final ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<Throwable>();
+	    Thread[] threads = new Thread[THREADS];
+	    for (int i = 0; i < THREADS; i++) {
+		final IdAllocator allocator = allocators[i % allocators.length];
+		threads[i] = new Thread(new Runnable() {
+		    public void run() {
+			try {
+			    for (int j = 0; j < IDS_PER_THREAD; j++) {
+				ids.add(Long.valueOf(allocator.next()));
+			    }
+			} catch (Throwable ex) {
+			    errors.add(ex);
+			}
+		    }
+		});
+		threads[i].start();
+	    }
+	    for (Thread t : threads) {
+		t.join();
+	    }
+	    for (Throwable ex : errors) {
+		ex.printStackTrace();
+	    }
+	    check(errors.isEmpty(), "no errors in threads");
+	    check(ids.size() == THREADS * IDS_PER_THREAD, "ids are unique: " + ids.size());
+	    long blocks = allocators[0].getBlockCount() + allocators[1].getBlockCount();
+	    check(blocks <= THREADS * IDS_PER_THREAD / BLOCK_SIZE + allocators.length, "one sequence call per block: " + blocks);
+	} finally {
+	    pool.release(first);
+	    pool.release(second);
+	}
+    }
+
+    void blockSizeMismatch() throws Exception {
+	TableDef other = new TableDef("ID_TEST", new ColumnBuilder().add("ID", ColumnType.BIGINT_SEQ, BLOCK_SIZE * 2)
+		.add("NAME", ColumnType.VARCHAR, 10).getColumns());
+	JavaDB_Connection jdbc = pool.borrow();
+	try {
+	    new IdAllocator(jdbc, other, 0);
+	    check(false, "block size other than sequence increment is rejected");
+	} catch (SQLException ex) {
+	    // expected
+	} finally {
+	    pool.release(jdbc);
+	}
+    }
+
+    void notSequence() throws Exception {
+	JavaDB_Connection jdbc = pool.borrow();
+	try {
+	    new IdAllocator(jdbc, tableDef, 1);
+	    check(false, "column without sequence is rejected");
+	} catch (IllegalArgumentException ex) {
+	    // expected
+	} finally {
+	    pool.release(jdbc);
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	IdAllocatorTest test = new IdAllocatorTest();
+	test.concurrentUniqueness();
+	test.blockSizeMismatch();
+	test.notSequence();
+	test.pool.close();
+	System.out.println(test.failures == 0 ? "OK" : test.failures + " checks failed");
+	System.exit(test.failures);
+    }
+}
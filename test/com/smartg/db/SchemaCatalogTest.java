@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Refresh of SchemaCatalog for databases which store identifiers in lower
+ * case (PostgreSQL) or upper case (Derby). PostgreSQL is simulated on
+ * embedded in-memory Derby: tables are created with quoted lower case names
+ * and DatabaseMetaData reports PostgreSQL and lower case identifiers.
+ * 
+ * Usage: SchemaCatalogTest, exit code is the number of failed checks.
+ */
+public class SchemaCatalogTest {
+
+    private final Connection derby;
+    private final Set<String> metadataCalls = new HashSet<String>();
+    private int failures;
+
+    SchemaCatalogTest() throws SQLException {
+	derby = DriverManager.getConnection("jdbc:derby:memory:schemaCatalogTest;create=true");
+    }
+
+    private void check(boolean condition, String message) {
+	if (!condition) {
+	    failures++;
+	    System.err.println("FAILED: " + message);
+	}
+    }
+
+    private void execute(String sql) throws SQLException {
+	Statement st = derby.createStatement();
+	try {
+	    st.execute(sql);
+	} finally {
+	    st.close();
+	}
+    }
+
+    private static int columnCount(SchemaCatalog catalog, String table) {
+	TableMetadata tm = catalog.getTable(table);
+	return tm == null ? -1 : tm.getColumnCount();
+    }
+
+    /**
+     * Derby connection whose metadata looks like PostgreSQL.
+     */
+    private Connection postgres() {
+	final DatabaseMetaData md;
+	try {
+	    md = derby.getMetaData();
+	} catch (SQLException ex) {
+	    throw new IllegalStateException(ex);
+	}
+	final DatabaseMetaData pgMetadata = (DatabaseMetaData) Proxy.newProxyInstance(getClass().getClassLoader(),
+		new Class<?>[] { DatabaseMetaData.class }, new InvocationHandler() {
+		    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			metadataCalls.add(name);
+			if (name.equals("getDatabaseProductName")) {
+			    return "PostgreSQL";
+			}
+			if (name.equals("getDatabaseMajorVersion")) {
+			    return Integer.valueOf(12);
+			}
+			if (name.equals("getDatabaseMinorVersion")) {
+			    return Integer.valueOf(0);
+			}
+			if (name.equals("storesLowerCaseIdentifiers")) {
+			    return Boolean.TRUE;
+			}
+			if (name.equals("storesUpperCaseIdentifiers")) {
+			    return Boolean.FALSE;
+			}
+			return call(md, method, args);
+		    }
+		});
+	return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+		new InvocationHandler() {
+		    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getName().equals("getMetaData")) {
+			    return pgMetadata;
+			}
+			return call(derby, method, args);
+		    }
+		});
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+	try {
+	    return method.invoke(target, args);
+	} catch (InvocationTargetException ex) {
+	    throw ex.getCause();
+	}
+    }
+
+    void postgresLowerCase() throws SQLException {
+	Connection pg = postgres();
+	check(Dialect.of(pg.getMetaData()) == Dialect.POSTGRESQL, "metadata reports PostgreSQL dialect");
+	execute("CREATE TABLE \"pg_items\" (\"id\" INT, \"name\" VARCHAR(10))");
+	SchemaCatalog catalog = SchemaCatalog.load(pg);
+	check(columnCount(catalog, "pg_items") == 2, "lower case table loaded");
+
+	execute("ALTER TABLE \"pg_items\" ADD COLUMN \"price\" INT");
+	metadataCalls.clear();
+	catalog = catalog.refresh(pg, "pg_items");
+	check(columnCount(catalog, "pg_items") == 3, "refresh finds lower case table");
+	check(columnCount(catalog, "PG_ITEMS") == 3, "lookup is case insensitive");
+	check(!metadataCalls.contains("getTables"), "lower case name found without fallback");
+
+	catalog = catalog.refresh(pg, "PG_ITEMS");
+	check(columnCount(catalog, "pg_items") == 3, "refresh with upper case name");
+	catalog = catalog.refresh(pg, "APP.Pg_Items");
+	check(columnCount(catalog, "app.pg_items") == 3, "refresh with qualified mixed case name");
+
+	execute("DROP TABLE \"pg_items\"");
+	catalog = catalog.refresh(pg, "pg_items");
+	check(!catalog.hasTable("pg_items"), "dropped table removed");
+    }
+
+    void derbyUpperCase() throws SQLException {
+	execute("CREATE TABLE DB_ITEMS (ID INT)");
+	SchemaCatalog catalog = SchemaCatalog.load(derby);
+	execute("ALTER TABLE DB_ITEMS ADD COLUMN NAME VARCHAR(10)");
+	catalog = catalog.refresh(derby, "db_items");
+	check(columnCount(catalog, "DB_ITEMS") == 2, "refresh finds upper case table by lower case name");
+	execute("DROP TABLE DB_ITEMS");
+    }
+
+    void quotedFallback() throws SQLException {
+	// Derby stores upper case, quoted lower case name needs fallback
+	execute("CREATE TABLE \"quoted_items\" (\"id\" INT)");
+	SchemaCatalog catalog = SchemaCatalog.load(derby);
+	execute("ALTER TABLE \"quoted_items\" ADD COLUMN \"name\" VARCHAR(10)");
+	catalog = catalog.refresh(derby, "quoted_items");
+	check(columnCount(catalog, "quoted_items") == 2, "refresh finds quoted table stored in other case");
+	execute("DROP TABLE \"quoted_items\"");
+    }
+
+    public static void main(String[] args) throws Exception {
+	SchemaCatalogTest test = new SchemaCatalogTest();
+	test.postgresLowerCase();
+	test.derbyUpperCase();
+	test.quotedFallback();
+	test.derby.close();
+	System.out.println(test.failures == 0 ? "OK" : test.failures + " checks failed");
+	System.exit(test.failures);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.db;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.smartg.db.Column.ColumnType;
+
+/**
+ * Failure paths of WriteBehindBuffer on embedded in-memory Derby: write
+ * errors, failing flush listener and death of flusher thread.
+ * 
+ * Usage: WriteBehindBufferTest, exit code is the number of failed checks.
+ */
+public class WriteBehindBufferTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final ConnectionPool pool = ConnectionFactory.getEmbeddedConnectionPool(null, null, "memory:writeBehindTest", null, true, 4);
+    private final TableDef tableDef = new TableDef("WB_TEST", new ColumnBuilder().add("ID", ColumnType.INTEGER).add("NAME", ColumnType.VARCHAR, 10)
+	    .getColumns());
+    private int failures;
+
+    WriteBehindBufferTest() throws SQLException {
+	JavaDB_Connection jdbc = pool.borrow();
+	try {
+	    jdbc.dropTable(tableDef.tableName);
+	    jdbc.createTable(tableDef);
+	} finally {
+	    pool.release(jdbc);
+	}
+    }
+
+    private void check(boolean condition, String message) {
+	if (!condition) {
+	    failures++;
+	    System.err.println("FAILED: " + message);
+	}
+    }
+
+    private static boolean failsWithin(CompletableFuture<?> future) throws InterruptedException {
+	try {
+	    future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+	    return false;
+	} catch (ExecutionException ex) {
+	    return true;
+	} catch (TimeoutException ex) {
+	    return false;
+	}
+    }
+
+    private static boolean succeedsWithin(CompletableFuture<?> future) throws InterruptedException {
+	try {
+	    future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+	    return true;
+	} catch (ExecutionException ex) {
+	    return false;
+	} catch (TimeoutException ex) {
+	    return false;
+	}
+    }
+
+    /**
+     * Run commit() on other thread, so a hanging commit is detected.
+     */
+    private static CompletableFuture<Void> commitAsync(final WriteBehindBuffer buffer) {
+	final CompletableFuture<Void> future = new CompletableFuture<Void>();
+	Thread t = new Thread(new Runnable() {
+	    public void run() {
+		try {
+		    buffer.commit();
+		    future.complete(null);
+		} catch (Throwable ex) {
+		    future.completeExceptionally(ex);
+		}
+	    }
+	});
+	t.setDaemon(true);
+	t.start();
+	return future;
+    }
+
+    void writeError() throws Exception {
+	WriteBehindBuffer buffer = new WriteBehindBuffer(pool, tableDef, 10, 20, WriteBehindBuffer.Durability.WAIT_FOR_FLUSH);
+	try {
+	    CompletableFuture<Void> bad = buffer.insert(1, "much too long for column");
+	    check(failsWithin(bad), "future of failed row completes exceptionally");
+	    check(buffer.getFailedRowCount() == 1, "failed row is counted");
+	    CompletableFuture<Void> ok = buffer.insert(2, "ok");
+	    check(succeedsWithin(ok), "rows after write error are written");
+	} finally {
+	    buffer.close();
+	}
+    }
+
+    void flushOnCommitError() throws Exception {
+	WriteBehindBuffer buffer = new WriteBehindBuffer(pool, tableDef, 10, 20, WriteBehindBuffer.Durability.FLUSH_ON_COMMIT);
+	try {
+	    buffer.insert(3, "much too long for column");
+	    check(failsWithin(commitAsync(buffer)), "commit() reports write error");
+	    check(succeedsWithin(commitAsync(buffer)), "error is reported only once");
+	} finally {
+	    buffer.close();
+	}
+    }
+
+    void listenerException() throws Exception {
+	WriteBehindBuffer buffer = new WriteBehindBuffer(pool, tableDef, 1, 20, WriteBehindBuffer.Durability.WAIT_FOR_FLUSH);
+	buffer.flushListener = new Runnable() {
+	    public void run() {
+		throw new IllegalStateException("listener failed");
+	    }
+	};
+	try {
+	    check(succeedsWithin(buffer.insert(4, "a")), "row is committed although listener failed");
+	    check(succeedsWithin(buffer.insert(5, "b")), "flusher survives listener exception");
+	    check(succeedsWithin(commitAsync(buffer)), "commit() after listener exception");
+	    check(buffer.getFlusherFailure() == null, "no flusher failure");
+	} finally {
+	    buffer.close();
+	}
+    }
+
+    void flusherDeath() throws Exception {
+	final CountDownLatch inListener = new CountDownLatch(1);
+	final CountDownLatch queued = new CountDownLatch(1);
+	WriteBehindBuffer buffer = new WriteBehindBuffer(pool, tableDef, 1, 20, WriteBehindBuffer.Durability.WAIT_FOR_FLUSH);
+	buffer.flushListener = new Runnable() {
+	    public void run() {
+		inListener.countDown();
+		try {
+		    queued.await();
+		} catch (InterruptedException ex) {
+		    Thread.currentThread().interrupt();
+		}
+		throw new AssertionError("flusher killed");
+	    }
+	};
+	CompletableFuture<Void> first = buffer.insert(6, "a");
+	check(inListener.await(TIMEOUT_SECONDS, TimeUnit.SECONDS), "first row flushed");
+	// queued behind the dying flush
+	CompletableFuture<Void> second = buffer.insert(7, "b");
+	CompletableFuture<Void> commit = commitAsync(buffer);
+	// let commit() queue its barrier
+	Thread.sleep(100);
+	queued.countDown();
+
+	check(succeedsWithin(first), "committed row completes although flusher died");
+	check(failsWithin(second), "queued row fails when flusher dies");
+	check(failsWithin(commit), "pending commit() fails instead of blocking");
+	check(buffer.getFlusherFailure() != null, "flusher failure is reported");
+	check(buffer.getQueueDepth() == 0, "queue is drained");
+	try {
+	    buffer.insert(8, "c");
+	    check(false, "insert() fails after flusher died");
+	} catch (SQLException ex) {
+	    // expected
+	}
+	check(failsWithin(commitAsync(buffer)), "commit() fails after flusher died");
+	try {
+	    buffer.close();
+	    check(false, "close() reports flusher failure");
+	} catch (SQLException ex) {
+	    // expected
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	WriteBehindBufferTest test = new WriteBehindBufferTest();
+	test.writeError();
+	test.flushOnCommitError();
+	test.listenerException();
+	test.flusherDeath();
+	test.pool.close();
+	System.out.println(test.failures == 0 ? "OK" : test.failures + " checks failed");
+	System.exit(test.failures);
+    }
+}